@@ -0,0 +1,123 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地回环地址上模拟飞书自定义机器人接口的 HTTP 服务.
+ * <p>
+ * 可以设置每个请求的延迟, 返回限流码 (9499) 的比例, 返回 HTTP 500 的比例.
+ */
+public final class FeishuStubServer implements AutoCloseable {
+
+    static final String SUCCESS = "{\"code\":0,\"data\":{},\"msg\":\"success\"}";
+    static final String THROTTLED = "{\"code\":9499,\"data\":{},\"msg\":\"too many request\"}";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private volatile long latencyMs;
+    private volatile double throttleRate;
+    private volatile double errorRate;
+
+    public FeishuStubServer(final int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/open-apis/bot/v2/hook/", this::handle);
+        server.start();
+    }
+
+    public FeishuStubServer latencyMs(final long latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    public FeishuStubServer throttleRate(final double throttleRate) {
+        this.throttleRate = throttleRate;
+        return this;
+    }
+
+    public FeishuStubServer errorRate(final double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * 一个指向本服务的 webhook 地址, token 只用来区分不同的机器人.
+     */
+    public String webhook(final String token) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                + "/open-apis/bot/v2/hook/" + token;
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        received.incrementAndGet();
+        long size = 0;
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) size += n;
+        }
+        bytes.addAndGet(size);
+
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        double roll = ThreadLocalRandom.current().nextDouble();
+        int status = 200;
+        String body = SUCCESS;
+        if (roll < errorRate) {
+            status = 500;
+            body = "internal error";
+        } else if (roll < errorRate + throttleRate) {
+            body = THROTTLED;
+        } else {
+            succeeded.incrementAndGet();
+        }
+
+        byte[] response = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,214 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * forText / forPost 的编码部分, 三种做法用同样的输入对比 (@ 人列表都已经解析好, 解析见 {@link RecipientsBenchmark}):
+ * <ul>
+ *     <li>baseline*: 最初的做法, 拼一棵 Message 对象树, 每条消息 new ObjectMapper 序列化成 String, 发送时再转成 UTF-8;</li>
+ *     <li>writer*: 同一棵对象树, 用共享的 ObjectMapper 预先建好的 ObjectWriter 序列化;</li>
+ *     <li>text / post: 现在的 {@link FeishuPayloadEncoder}, 不建对象树, 直接写成字节.</li>
+ * </ul>
+ * 对象树的类照搬改造前的 FeishuWatcher. 加 -prof gc 看每次操作分配的字节数.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBenchmark {
+
+    private static final ObjectWriter TEXT_WRITER = FeishuJson.MAPPER.writerFor(MessageText.class);
+    private static final ObjectWriter POST_WRITER = FeishuJson.MAPPER.writerFor(Message.class);
+
+    private final String subject = "feishu-watcher-plugin: Computer agent-17 marked offline";
+    private final String body = "Connection was broken: java.nio.channels.ClosedChannelException";
+    private final String time = "2026-10-17 10:00:00";
+    private final String initiator = "admin";
+    private final String url = "https://jenkins.example.com/computer/agent-17/";
+    private final Recipients recipients = Recipients.parse("ou_18eac8a1b2c3d4e5f617ad4f02e8bbbb,ou_28eac8a1b2c3d4e5f617ad4f02e8cccc,13800000000");
+
+    @Benchmark
+    public byte[] baselineText() throws IOException {
+        return new ObjectMapper().writeValueAsString(textMessage()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] writerText() throws IOException {
+        return TEXT_WRITER.writeValueAsString(textMessage()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public FeishuPayload text() {
+        String prefix = subject + "\n\n说明: \n";
+        String suffix = "\n\n发现时间: " + time + "\n发起者是: " + initiator + "\n链接: " + url + "\n" + recipients.getTextMentions();
+        return FeishuPayloadEncoder.text(prefix, body, suffix);
+    }
+
+    @Benchmark
+    public byte[] baselinePost() throws IOException {
+        return new ObjectMapper().writeValueAsString(postMessage()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] writerPost() throws IOException {
+        return POST_WRITER.writeValueAsString(postMessage()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public FeishuPayload post() {
+        return FeishuPayloadEncoder.post(subject, w -> {
+            w.text("\n");
+            w.text("说明: \n", body, "\n");
+            w.text("\n");
+            w.text("发现时间: " + time + "\n");
+            w.text("发起者是: " + initiator + "\n");
+            w.text("链接:  ");
+            w.link("请点这里", url);
+            w.text("\n");
+            for (String s : recipients.getMentioned()) w.at(s);
+            for (String s : recipients.getMobiles()) w.at(s);
+        });
+    }
+
+    private MessageText textMessage() {
+        StringBuilder content = new StringBuilder();
+        content.append(subject);
+        content.append("\n");
+        content.append("\n");
+        content.append("说明: \n" + body + "\n\n");
+        content.append("发现时间: ");
+        content.append(time);
+        content.append("\n");
+        content.append("发起者是: ");
+        content.append(initiator);
+        content.append("\n");
+        content.append("链接: ");
+        content.append(url);
+        content.append("\n");
+        for (String mentioned : recipients.getMentioned()) {
+            content.append("<at user_id=\"" + mentioned + "\">" + mentioned + "</at>\n");
+        }
+        return new MessageText("text", new MessageTextContent(content.toString()));
+    }
+
+    private Message postMessage() {
+        List<MessageItem> list = new ArrayList<>();
+        list.add(new MessageItem("text", "\n", null, null));
+        list.add(new MessageItem("text", "说明: \n" + body + "\n", null, null));
+        list.add(new MessageItem("text", "\n", null, null));
+        list.add(new MessageItem("text", "发现时间: " + time + "\n", null, null));
+        list.add(new MessageItem("text", "发起者是: " + initiator + "\n", null, null));
+        list.add(new MessageItem("text", "链接:  ", null, null));
+        list.add(new MessageItem("a", "请点这里", url, null));
+        list.add(new MessageItem("text", "\n", null, null));
+        for (String s : recipients.getMentioned()) {
+            list.add(new MessageItem("at", null, null, s));
+        }
+        for (String s : recipients.getMobiles()) {
+            list.add(new MessageItem("at", null, null, s));
+        }
+        List<List<MessageItem>> contentList = new ArrayList<>();
+        contentList.add(list);
+        return new Message("post", new MessageContent(new MessagePost(new MessageZhCn(subject, contentList))));
+    }
+
+    private static class MessageText {
+        @JsonProperty("msg_type")
+        public String msgType;
+        @JsonProperty("content")
+        public MessageTextContent content;
+
+        MessageText(String msgType, MessageTextContent content) {
+            this.msgType = msgType;
+            this.content = content;
+        }
+    }
+
+    private static class MessageTextContent {
+        @JsonProperty("text")
+        public String text;
+
+        MessageTextContent(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class Message {
+        @JsonProperty("msg_type")
+        public String msgType;
+        @JsonProperty("content")
+        public MessageContent content;
+
+        Message(String msgType, MessageContent content) {
+            this.msgType = msgType;
+            this.content = content;
+        }
+    }
+
+    private static class MessageContent {
+        @JsonProperty("post")
+        public MessagePost post;
+
+        MessageContent(MessagePost post) {
+            this.post = post;
+        }
+    }
+
+    private static class MessagePost {
+        @JsonProperty("zh_cn")
+        public MessageZhCn zhcn;
+
+        MessagePost(MessageZhCn zhcn) {
+            this.zhcn = zhcn;
+        }
+    }
+
+    private static class MessageZhCn {
+        @JsonProperty("title")
+        public String title;
+        @JsonProperty("content")
+        public List<List<MessageItem>> content;
+
+        MessageZhCn(String title, List<List<MessageItem>> content) {
+            this.title = title;
+            this.content = content;
+        }
+    }
+
+    private static class MessageItem {
+        @JsonProperty("tag")
+        public String tag;
+        @JsonProperty("text")
+        public String text;
+        @JsonProperty("href")
+        public String href;
+        @JsonProperty("user_id")
+        public String userId;
+
+        MessageItem(String tag, String text, String href, String userId) {
+            this.tag = tag;
+            this.text = text;
+            this.href = href;
+            this.userId = userId;
+        }
+    }
+}
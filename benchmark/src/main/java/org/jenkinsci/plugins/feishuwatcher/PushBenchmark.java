@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过共享连接池向本地飞书桩服务推送一条消息.
+ * <p>
+ * SampleTime 模式会给出 p99 延迟; latencyMs / errorRate 模拟慢的和出错的飞书.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class PushBenchmark {
+
+    @Param({"0", "20"})
+    public long latencyMs;
+
+    @Param({"0", "0.1"})
+    public double errorRate;
+
+    private FeishuStubServer server;
+    private String url;
+    private FeishuPayload payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new FeishuStubServer(16).latencyMs(latencyMs).errorRate(errorRate);
+        url = server.webhook("benchmark");
+        payload = FeishuPayloadEncoder.text("feishu-watcher-plugin: Computer agent-17 marked offline");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FeishuHttpTransport.shutdown();
+        server.close();
+    }
+
+    @Benchmark
+    public int push() throws IOException {
+        return FeishuHttpTransport.get().post(url, payload).getStatus();
+    }
+}
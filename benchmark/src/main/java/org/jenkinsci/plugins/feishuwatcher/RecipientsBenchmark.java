@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.google.common.base.Splitter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ 人列表的解析. parse 只在属性保存时发生一次, cached 是现在发送路径上的开销,
+ * legacy 是改造前每条消息都重新拆分两遍的开销.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecipientsBenchmark {
+
+    private final String mention = "ou_18eac8a1b2c3d4e5f617ad4f02e8bbbb, ou_28eac8a1b2c3d4e5f617ad4f02e8cccc, @all, 13800000000, 13900000000";
+    private final Recipients cached = Recipients.parse(mention);
+
+    @Benchmark
+    public Recipients parse() {
+        return Recipients.parse(mention);
+    }
+
+    @Benchmark
+    public void cached(final Blackhole bh) {
+        bh.consume(cached.getMentioned());
+        bh.consume(cached.getMobiles());
+        bh.consume(cached.getTextMentions());
+    }
+
+    @Benchmark
+    public void legacy(final Blackhole bh) {
+        List<String> mentioned = new ArrayList<>();
+        for (String result : Splitter.on(',').omitEmptyStrings().trimResults().split(mention)) {
+            if (result.startsWith("ou") || result.contains("all")) mentioned.add(result);
+        }
+        List<String> mobiles = new ArrayList<>();
+        for (String result : Splitter.on(',').omitEmptyStrings().trimResults().split(mention)) {
+            if (!result.startsWith("ou") && !result.contains("all")) mobiles.add(result);
+        }
+        bh.consume(mentioned);
+        bh.consume(mobiles);
+    }
+}
@@ -0,0 +1,222 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.init.Terminator;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 投递记录: 每个 webhook 每条消息一条 (时间, 事件, webhook, 结果, 耗时, 飞书返回码).
+ * <p>
+ * 最近的 {@link #CAPACITY} 条放在内存里的环形缓冲区, 在管理页面上展示;
+ * 同时追加到 $JENKINS_HOME/feishu-watcher/audit.log, 每行一条制表符分隔的记录,
+ * 超过 {@link #MAX_FILE_BYTES} 时滚动成 audit.log.1 ... audit.log.{@link #MAX_FILES}.
+ * 文件通过缓冲写入, 每隔几秒刷一次盘.
+ */
+final class DeliveryAudit {
+    private static final Logger LOGGER = Logger.getLogger(DeliveryAudit.class.getName());
+
+    private static final String PREFIX = DeliveryAudit.class.getName() + ".";
+
+    static final int CAPACITY = SystemProperties.getInteger(PREFIX + "capacity", 500);
+    static final long MAX_FILE_BYTES = SystemProperties.getLong(PREFIX + "maxFileBytes", 5L * 1024 * 1024);
+    static final int MAX_FILES = SystemProperties.getInteger(PREFIX + "maxFiles", 3);
+
+    private static final String FILE = "audit.log";
+
+    private static final Record[] RING = new Record[Math.max(1, CAPACITY)];
+    private static long written;
+
+    private static final Object FILE_LOCK = new Object();
+    private static Writer writer;
+    private static long fileBytes;
+    private static boolean flushScheduled;
+
+    private DeliveryAudit() {
+    }
+
+    static void record(final @CheckForNull EventType event, final @Nonnull String url, final @Nonnull String status,
+                       final long created, final int attempts, final int httpStatus, final int code) {
+        final Record record = new Record(System.currentTimeMillis(), event, FeishuWatcher.maskWebhook(url), status,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - created), attempts, httpStatus, code);
+        synchronized (RING) {
+            RING[(int) (written++ % RING.length)] = record;
+        }
+        append(record);
+    }
+
+    /**
+     * 最近的记录, 新的在前.
+     */
+    @Nonnull
+    static List<Record> recent() {
+        synchronized (RING) {
+            int size = (int) Math.min(written, RING.length);
+            List<Record> records = new ArrayList<>(size);
+            for (long i = written - 1; i >= written - size; i--) {
+                records.add(RING[(int) (i % RING.length)]);
+            }
+            return records;
+        }
+    }
+
+    private static void append(final Record record) {
+        final String line = record.toLine();
+        synchronized (FILE_LOCK) {
+            try {
+                if (writer == null) open();
+                if (fileBytes + line.length() > MAX_FILE_BYTES) {
+                    rotate();
+                }
+                writer.write(line);
+                // 按字符数估算, 记录基本都是 ASCII
+                fileBytes += line.length();
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    Timer.get().schedule(DeliveryAudit::flush, 5, TimeUnit.SECONDS);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "unable to write feishu audit log", e);
+                closeQuietly();
+            }
+        }
+    }
+
+    private static void open() throws IOException {
+        File dir = FeishuOutbox.dir();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("unable to create " + dir);
+        }
+        File file = new File(dir, FILE);
+        fileBytes = file.length();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    private static void rotate() throws IOException {
+        closeQuietly();
+        File dir = FeishuOutbox.dir();
+        for (int i = MAX_FILES - 1; i >= 1; i--) {
+            File from = new File(dir, FILE + "." + i);
+            if (from.isFile()) {
+                Files.move(from.toPath(), new File(dir, FILE + "." + (i + 1)).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        File current = new File(dir, FILE);
+        if (MAX_FILES >= 1) {
+            Files.move(current.toPath(), new File(dir, FILE + ".1").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(current.toPath());
+        }
+        open();
+    }
+
+    private static void flush() {
+        synchronized (FILE_LOCK) {
+            flushScheduled = false;
+            if (writer == null) return;
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "unable to flush feishu audit log", e);
+                closeQuietly();
+            }
+        }
+    }
+
+    private static void closeQuietly() {
+        if (writer == null) return;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        writer = null;
+    }
+
+    /**
+     * 关闭时把缓冲里的记录写到文件; 之后还有记录会重新打开文件.
+     */
+    @Terminator(requires = FeishuDispatcher.DRAINED)
+    public static void close() {
+        synchronized (FILE_LOCK) {
+            closeQuietly();
+        }
+    }
+
+    public static final class Record {
+        private final long time;
+        private final EventType event;
+        private final String target;
+        private final String status;
+        private final long latencyMs;
+        private final int attempts;
+        private final int httpStatus;
+        private final int code;
+
+        Record(final long time, final EventType event, final String target, final String status, final long latencyMs,
+               final int attempts, final int httpStatus, final int code) {
+            this.time = time;
+            this.event = event;
+            this.target = target;
+            this.status = status;
+            this.latencyMs = latencyMs;
+            this.attempts = attempts;
+            this.httpStatus = httpStatus;
+            this.code = code;
+        }
+
+        public Date getTime() {
+            return new Date(time);
+        }
+
+        public String getEvent() {
+            return event == null ? "" : event.name();
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public long getLatencyMs() {
+            return latencyMs;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public int getHttpStatus() {
+            return httpStatus;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        String toLine() {
+            return time + "\t" + getEvent() + "\t" + target + "\t" + status + "\t" + latencyMs + "\t"
+                    + attempts + "\t" + httpStatus + "\t" + code + "\n";
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次通知发往各个 webhook 的结果: 成功, 失败 (附原因), 超过截止时间仍未返回, 重复而没有发送.
+ */
+public final class DeliveryResult {
+
+    private final List<String> succeeded = new ArrayList<>();
+    private final Map<String, String> failed = new LinkedHashMap<>();
+    private final List<String> timedOut = new ArrayList<>();
+    private final List<String> suppressed = new ArrayList<>();
+
+    void succeeded(final String url) {
+        succeeded.add(url);
+    }
+
+    void failed(final String url, final String reason) {
+        failed.put(url, reason);
+    }
+
+    void timedOut(final String url) {
+        timedOut.add(url);
+    }
+
+    void suppressed(final String url) {
+        suppressed.add(url);
+    }
+
+    @Nonnull
+    public List<String> getSucceeded() {
+        return Collections.unmodifiableList(succeeded);
+    }
+
+    @Nonnull
+    public Map<String, String> getFailed() {
+        return Collections.unmodifiableMap(failed);
+    }
+
+    @Nonnull
+    public List<String> getTimedOut() {
+        return Collections.unmodifiableList(timedOut);
+    }
+
+    /**
+     * 窗口内已经发过相同指纹, 没有再发的 webhook.
+     */
+    @Nonnull
+    public List<String> getSuppressed() {
+        return Collections.unmodifiableList(suppressed);
+    }
+
+    public boolean isAllSucceeded() {
+        return failed.isEmpty() && timedOut.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("succeeded=").append(succeeded.size());
+        if (!suppressed.isEmpty()) {
+            sb.append(", duplicates=").append(suppressed.size());
+        }
+        for (Map.Entry<String, String> e : failed.entrySet()) {
+            sb.append(", failed ").append(FeishuWatcher.maskWebhook(e.getKey())).append(": ").append(e.getValue());
+        }
+        for (String url : timedOut) {
+            sb.append(", timed out ").append(FeishuWatcher.maskWebhook(url));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,30 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+/**
+ * 通过 JMX 暴露的一组投递统计 (按事件类型或按 webhook 主机).
+ */
+public interface DeliveryStatsMXBean {
+
+    String getName();
+
+    long getEnqueued();
+
+    long getSent();
+
+    long getFailed();
+
+    long getRetried();
+
+    long getPayloadBytes();
+
+    /**
+     * 从监听器回调到飞书确认收到, 平均耗时.
+     */
+    long getLatencyMeanMs();
+
+    long getLatencyP50Ms();
+
+    long getLatencyP99Ms();
+
+    long getLatencyMaxMs();
+}
@@ -0,0 +1,194 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.init.Terminator;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把同一个 webhook 在一个时间窗口内的通知合并成一条汇总消息.
+ * <p>
+ * 云节点批量缩容, Job DSL 批量更新时会在几秒内产生成百上千条通知,
+ * 合并之后每个窗口每个 webhook 只发一条. 同一台机器在窗口内先离线又上线, 两条互相抵消.
+ * 窗口为 0 时不合并.
+ */
+final class EventCoalescer {
+
+    private static final String PREFIX = EventCoalescer.class.getName() + ".";
+
+    static final long WINDOW_MS = SystemProperties.getLong(PREFIX + "windowMs", 2000L);
+    static final int MAX_BATCH = SystemProperties.getInteger(PREFIX + "maxBatch", 500);
+    static final int MAX_DIGEST_LINES = SystemProperties.getInteger(PREFIX + "maxDigestLines", 50);
+
+    /**
+     * 关闭时先把窗口里的通知交给 {@link FeishuDispatcher}, 再排空队列.
+     */
+    static final String FLUSHED = "feishu-watcher.coalescer-flushed";
+
+    private static final EventCoalescer INSTANCE = new EventCoalescer();
+
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    private EventCoalescer() {
+    }
+
+    @Nonnull
+    static EventCoalescer get() {
+        return INSTANCE;
+    }
+
+    void offer(final @Nonnull FeishuWatcherNotification notification) {
+        if (WINDOW_MS <= 0) {
+            notification.dispatch();
+            return;
+        }
+        final String key = notification.isPost() + "|" + notification.getWebhooks();
+        List<FeishuWatcherNotification> full = null;
+        synchronized (this) {
+            Batch batch = batches.get(key);
+            if (batch == null) {
+                final Batch created = new Batch();
+                batches.put(key, created);
+                Timer.get().schedule(() -> flush(key, created), WINDOW_MS, TimeUnit.MILLISECONDS);
+                batch = created;
+            }
+            if (batch.cancelsFlap(notification)) return;
+            batch.items.add(notification);
+            if (batch.items.size() >= MAX_BATCH) {
+                batches.remove(key);
+                full = batch.items;
+            }
+        }
+        if (full != null) emit(full);
+    }
+
+    private void flush(final String key, final Batch batch) {
+        synchronized (this) {
+            // 已经因为条数太多被提前发出去了
+            if (batches.get(key) != batch) return;
+            batches.remove(key);
+        }
+        emit(batch.items);
+    }
+
+    private static void emit(final List<FeishuWatcherNotification> items) {
+        if (items.isEmpty()) return;
+        if (items.size() == 1) {
+            items.get(0).dispatch();
+            return;
+        }
+        new Digest.Builder(items).send(null);
+    }
+
+    @Terminator(attains = FLUSHED)
+    public static void flushAll() {
+        List<List<FeishuWatcherNotification>> pending = new ArrayList<>();
+        synchronized (INSTANCE) {
+            for (Batch batch : INSTANCE.batches.values()) {
+                pending.add(batch.items);
+            }
+            INSTANCE.batches.clear();
+        }
+        for (List<FeishuWatcherNotification> items : pending) {
+            emit(items);
+        }
+    }
+
+    private static final class Batch {
+        final List<FeishuWatcherNotification> items = new ArrayList<>();
+
+        /**
+         * 机器上线时, 如果窗口里还有它的离线通知, 两条都不发.
+         */
+        boolean cancelsFlap(final FeishuWatcherNotification notification) {
+            EventType event = notification.getEvent();
+            if (event == null || !event.isComputerOnline()) return false;
+            for (int i = items.size() - 1; i >= 0; i--) {
+                FeishuWatcherNotification pending = items.get(i);
+                if (pending.getEvent() != null && pending.getEvent().isComputerOffline()
+                        && pending.getName().equals(notification.getName())) {
+                    items.remove(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 汇总消息: 标题是数量, 正文逐条列出.
+     */
+    private static class Digest extends FeishuWatcherNotification {
+
+        private final int count;
+
+        public Digest(final Builder builder) {
+            super(builder);
+            this.count = builder.count;
+        }
+
+        @Override
+        boolean isDigest() {
+            return true;
+        }
+
+        @Override
+        int getCount() {
+            return count;
+        }
+
+        private static class Builder extends FeishuWatcherNotification.Builder {
+
+            private final int count;
+
+            public Builder(final List<FeishuWatcherNotification> items) {
+                super(items.get(0).feishu, items.get(0).getJenkinsRootUrl());
+                final FeishuWatcherNotification first = items.get(0);
+
+                EventType event = first.getEvent();
+                boolean computers = true;
+                long created = first.getCreated();
+                List<Recipients> recipients = new ArrayList<>();
+                StringBuilder body = new StringBuilder();
+                for (int i = 0; i < items.size(); i++) {
+                    FeishuWatcherNotification item = items.get(i);
+                    if (item.getEvent() != event) event = null;
+                    if (item.getEvent() == null || !item.getEvent().isComputerEvent()) computers = false;
+                    if (item.getRecipients() != null) recipients.add(item.getRecipients());
+                    if (item.getCreated() - created < 0) created = item.getCreated();
+                    if (i < MAX_DIGEST_LINES) {
+                        body.append("- ").append(item.getSubject()).append('\n');
+                    }
+                }
+                // 标题和省略行可以在全局配置里和消息模板一起改
+                final FeishuWatcherGlobalConfiguration config = FeishuWatcherGlobalConfiguration.get();
+                if (items.size() > MAX_DIGEST_LINES) {
+                    body.append(config.digestMore(items.size() - MAX_DIGEST_LINES)).append('\n');
+                }
+
+                this.count = items.size();
+                this.subject(config.digestSubject(event, items.size()));
+                this.body(body.toString());
+                this.event(event);
+                if (!recipients.isEmpty()) this.recipients(Recipients.merge(recipients));
+                this.webhooks(first.getWebhooks());
+                this.isPost(first.isPost());
+                this.url(computers ? "computer/" : "");
+                this.name(items.size() + " events");
+                this.initiator(first.getInitiator());
+                this.created(created);
+            }
+
+            @Override
+            public void send(final Object o) {
+                new Digest(this).dispatch();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * 某一类事件的消息模板, 占位符见 {@link MessageTemplate}; 以及这类事件的汇总消息标题, 见 {@link EventCoalescer}.
+ */
+public class EventTemplate extends AbstractDescribableImpl<EventTemplate> {
+
+    private final String event;
+    private final String template;
+    private String digestSubject;
+
+    @DataBoundConstructor
+    public EventTemplate(final String event, final String template) {
+        this.event = event;
+        this.template = template;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public String getDigestSubject() {
+        return digestSubject;
+    }
+
+    /**
+     * 汇总消息的标题, 比如 "${count} 台机器离线"; 留空用内置的标题.
+     */
+    @DataBoundSetter
+    public void setDigestSubject(final String digestSubject) {
+        this.digestSubject = Util.fixEmptyAndTrim(digestSubject);
+    }
+
+    @CheckForNull
+    EventType eventType() {
+        try {
+            return event == null ? null : EventType.valueOf(event);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<EventTemplate> {
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Message template";
+        }
+
+        public ListBoxModel doFillEventItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (EventType type : EventType.values()) {
+                items.add(type.name());
+            }
+            return items;
+        }
+
+        public FormValidation doCheckTemplate(@QueryParameter String value, @QueryParameter String digestSubject) {
+            // 只改汇总消息标题时可以不填正文模板
+            if (StringUtils.isBlank(value) && StringUtils.isBlank(digestSubject)) {
+                return FormValidation.error("template is empty");
+            }
+            return FormValidation.ok();
+        }
+    }
+}
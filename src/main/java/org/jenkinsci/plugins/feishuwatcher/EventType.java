@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+/**
+ * 插件会通知的事件类型.
+ */
+public enum EventType {
+    JOB_UPDATED("%d jobs were updated"),
+    JOB_RENAMED("%d jobs were renamed"),
+    JOB_DELETED("%d jobs were deleted"),
+    COMPUTER_OFFLINE("%d computers went offline"),
+    COMPUTER_TEMPORARILY_OFFLINE("%d computers were marked temporarily offline"),
+    COMPUTER_ONLINE("%d computers came online"),
+    COMPUTER_TEMPORARILY_ONLINE("%d computers came back from temporarily offline"),
+    NODE_FREE("%d computers you have put offline are no longer occupied"),
+    QUEUE_STARVATION("%d labels have a long build queue"),
+    COMPUTER_UNHEALTHY("%d computers are running out of resources"),
+    COMPUTER_HEALTHY("%d computers have recovered their resources");
+
+    private final String digestSubject;
+
+    EventType(final String digestSubject) {
+        this.digestSubject = digestSubject;
+    }
+
+    /**
+     * 内置的汇总消息标题, 比如 "37 computers went offline"; 可以在 {@link EventTemplate} 里替换.
+     */
+    public String digestSubject(final int count) {
+        return String.format(digestSubject, count);
+    }
+
+    public boolean isJobEvent() {
+        return this == JOB_UPDATED || this == JOB_RENAMED || this == JOB_DELETED;
+    }
+
+    public boolean isComputerEvent() {
+        return this != JOB_UPDATED && this != JOB_RENAMED && this != JOB_DELETED && this != QUEUE_STARVATION;
+    }
+
+    public boolean isComputerOffline() {
+        return this == COMPUTER_OFFLINE || this == COMPUTER_TEMPORARILY_OFFLINE;
+    }
+
+    public boolean isComputerOnline() {
+        return this == COMPUTER_ONLINE || this == COMPUTER_TEMPORARILY_ONLINE;
+    }
+}
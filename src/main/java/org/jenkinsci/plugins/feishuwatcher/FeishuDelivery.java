@@ -0,0 +1,312 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import hudson.init.Terminator;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 单个 webhook 的投递: 解析飞书返回码, 对临时性错误做带抖动的指数退避重试,
+ * 重试用完仍失败的消息写入 {@link FeishuOutbox}, 重启后重放.
+ */
+final class FeishuDelivery {
+    private static final Logger LOGGER = Logger.getLogger(FeishuDelivery.class.getName());
+
+    private static final String PREFIX = FeishuDelivery.class.getName() + ".";
+
+    static final int MAX_ATTEMPTS = SystemProperties.getInteger(PREFIX + "maxAttempts", 4);
+    static final long BASE_BACKOFF_MS = SystemProperties.getLong(PREFIX + "baseBackoffMs", 1000L);
+    static final long MAX_BACKOFF_MS = SystemProperties.getLong(PREFIX + "maxBackoffMs", 30000L);
+
+    /**
+     * 飞书在 HTTP 200 里返回的限流错误码, 可以重试.
+     * 9499: Too Many Request; 11232: 发送频率超限.
+     */
+    private static final Set<Integer> TRANSIENT_CODES = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(9499, 11232)));
+
+    /**
+     * 已经排期但还没执行的重试, 关闭时写入 outbox.
+     */
+    private static final Set<Retry> PENDING = ConcurrentHashMap.newKeySet();
+
+    private FeishuDelivery() {
+    }
+
+    /**
+     * 异步投递, 返回的 future 在成功, 永久失败或写入 outbox 之后完成.
+     */
+    @Nonnull
+    static CompletableFuture<Outcome> deliver(final @Nonnull String url, final @Nonnull FeishuPayload payload,
+                                              final @CheckForNull Fingerprint fingerprint,
+                                              final @CheckForNull EventType event, final long created) {
+        CompletableFuture<Outcome> future = new CompletableFuture<>();
+        new Retry(url, payload, fingerprint, event, created, 1, future).run();
+        return future;
+    }
+
+    private static void attempt(final Retry retry) {
+        WebhookCircuitBreaker breaker = WebhookCircuitBreaker.of(retry.url);
+        if (!breaker.allow()) {
+            retry.complete(Outcome.broken());
+            return;
+        }
+        FeishuWatcherMetrics.attempted(retry.event, retry.url, retry.payload.size(), retry.attempt > 1);
+        Outcome outcome = null;
+        try {
+            outcome = post(retry.url, retry.payload);
+        } catch (RuntimeException e) {
+            // 比如 webhook 地址不合法; 重试也没用
+            LOGGER.log(Level.WARNING, "unable to post to " + FeishuWatcher.maskWebhook(retry.url), e);
+            outcome = new Outcome(Outcome.Status.PERMANENT, 0, -1, String.valueOf(e));
+        } finally {
+            // 不管怎样都要记录, 否则半开的熔断器会一直拒绝这个 webhook
+            breaker.record(outcome);
+        }
+        if (outcome.getStatus() != Outcome.Status.TRANSIENT) {
+            if (outcome.getStatus() == Outcome.Status.PERMANENT) {
+                LOGGER.warning("feishu rejected message to " + FeishuWatcher.maskWebhook(retry.url) + ": " + outcome);
+            }
+            retry.complete(outcome);
+            return;
+        }
+        if (retry.attempt >= MAX_ATTEMPTS) {
+            retry.complete(toOutbox(retry, outcome));
+            return;
+        }
+
+        long delay = backoff(retry.attempt);
+        LOGGER.log(Level.FINE, "retrying {0} in {1}ms after attempt {2}: {3}",
+                new Object[]{FeishuWatcher.maskWebhook(retry.url), delay, retry.attempt, outcome});
+        Retry next = new Retry(retry.url, retry.payload, retry.fingerprint, retry.event, retry.created, retry.attempt + 1, retry.future);
+        schedule(next, delay, next);
+    }
+
+    /**
+     * 延后执行; 关闭时还没执行的由 {@link #flushPending()} 写入 outbox.
+     */
+    private static void schedule(final Retry retry, final long delayMs, final Runnable action) {
+        PENDING.add(retry);
+        Timer.get().schedule(() -> {
+            if (PENDING.remove(retry)) action.run();
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static Outcome toOutbox(final Retry retry, final Outcome last) {
+        try {
+            FeishuOutbox.append(retry.url, retry.payload, retry.fingerprint, retry.event);
+            return last.outboxed();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "unable to write feishu outbox, message dropped", e);
+            return last;
+        }
+    }
+
+    /**
+     * 带抖动的指数退避: 取 [d/2, d) 之间的随机值, d = base * 2^(attempt-1), 不超过上限.
+     */
+    static long backoff(final int attempt) {
+        long delay = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt - 1, 20));
+        long half = Math.max(1L, delay / 2);
+        return half + ThreadLocalRandom.current().nextLong(half);
+    }
+
+    @Nonnull
+    private static Outcome post(final String url, final FeishuPayload payload) {
+        try {
+            // 每次发送 (包括重试) 都重新签名, 时间戳不会过期
+            FeishuHttpTransport.Response response = FeishuHttpTransport.get().post(url, WebhookSigner.sign(url, payload));
+            return classify(response.getStatus(), response.getBody());
+        } catch (IOException | IllegalStateException e) {
+            // IllegalStateException: 连接池已关闭
+            return new Outcome(Outcome.Status.TRANSIENT, 0, -1, String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * 飞书即使出错也常常返回 HTTP 200, 需要看响应体里的 code (旧版接口是 StatusCode).
+     * {"code":0,"data":{},"msg":"success"}
+     */
+    @Nonnull
+    static Outcome classify(final int httpStatus, final String body) {
+        if (httpStatus == 429 || httpStatus >= 500) {
+            return new Outcome(Outcome.Status.TRANSIENT, httpStatus, -1, body);
+        }
+        if (httpStatus / 100 != 2) {
+            return new Outcome(Outcome.Status.PERMANENT, httpStatus, -1, body);
+        }
+        JsonNode node;
+        try {
+            node = FeishuJson.MAPPER.readTree(body);
+        } catch (IOException e) {
+            node = null;
+        }
+        if (node == null || !node.isObject()) {
+            return new Outcome(Outcome.Status.SUCCESS, httpStatus, 0, body);
+        }
+        int code = node.has("code") ? node.get("code").asInt() : node.path("StatusCode").asInt(0);
+        String msg = node.has("msg") ? node.get("msg").asText() : node.path("StatusMessage").asText("");
+        if (code == 0) {
+            return new Outcome(Outcome.Status.SUCCESS, httpStatus, code, msg);
+        }
+        Outcome.Status status = TRANSIENT_CODES.contains(code) ? Outcome.Status.TRANSIENT : Outcome.Status.PERMANENT;
+        return new Outcome(status, httpStatus, code, msg);
+    }
+
+    /**
+     * 关闭时把还在等待的重试写入 outbox, 下次启动时重放.
+     */
+    @Terminator(requires = FeishuDispatcher.DRAINED)
+    public static void flushPending() {
+        for (Retry retry : PENDING) {
+            if (PENDING.remove(retry)) {
+                retry.complete(toOutbox(retry, new Outcome(Outcome.Status.TRANSIENT, 0, -1, "shutting down")));
+            }
+        }
+    }
+
+    private static final class Retry implements Runnable {
+        final String url;
+        final FeishuPayload payload;
+        final Fingerprint fingerprint;
+        final EventType event;
+        final long created;
+        final int attempt;
+        final CompletableFuture<Outcome> future;
+
+        Retry(final String url, final FeishuPayload payload, final Fingerprint fingerprint, final EventType event,
+              final long created, final int attempt, final CompletableFuture<Outcome> future) {
+            this.url = url;
+            this.payload = payload;
+            this.fingerprint = fingerprint;
+            this.event = event;
+            this.created = created;
+            this.attempt = attempt;
+            this.future = future;
+        }
+
+        void complete(final Outcome outcome) {
+            if (outcome.isSuccess()) {
+                FeishuWatcherMetrics.sent(event, url, created);
+            } else {
+                FeishuWatcherMetrics.failed(event, url);
+            }
+            DeliveryAudit.record(event, url, outcome.isOutboxed() ? "OUTBOXED" : outcome.getStatus().name(),
+                    created, attempt, outcome.getHttpStatus(), outcome.getCode());
+            future.complete(outcome);
+        }
+
+        /**
+         * 熔断中的 webhook 直接失败; 否则先向该 webhook 的限流器预约, 超出配额的延后发送, 积压太多的丢弃.
+         */
+        @Override
+        public void run() {
+            if (WebhookCircuitBreaker.of(url).rejects()) {
+                complete(Outcome.broken());
+                return;
+            }
+            long delay = WebhookRateLimiter.of(url).reserve();
+            if (delay < 0) {
+                LOGGER.warning("rate limit backlog full for " + FeishuWatcher.maskWebhook(url) + ", message shed");
+                complete(new Outcome(Outcome.Status.SHED, 0, -1, "rate limit backlog full"));
+            } else if (delay > 0) {
+                schedule(this, delay, this::submit);
+            } else {
+                submit();
+            }
+        }
+
+        private void submit() {
+            final ExecutorService fanout = FeishuDispatcher.get().fanout();
+            try {
+                fanout.execute(() -> attempt(this));
+            } catch (RejectedExecutionException e) {
+                // 关闭中, 或者积压的推送太多 (比如 webhook 不可用): 不在内存里继续堆, 写入 outbox 以后重放
+                if (fanout.isShutdown()) {
+                    complete(toOutbox(this, new Outcome(Outcome.Status.TRANSIENT, 0, -1, "shutting down")));
+                    return;
+                }
+                LOGGER.warning("feishu fan-out queue full, message to " + FeishuWatcher.maskWebhook(url) + " saved to outbox");
+                complete(toOutbox(this, new Outcome(Outcome.Status.TRANSIENT, 0, -1, "fan-out queue full")));
+            }
+        }
+    }
+
+    static final class Outcome {
+        enum Status {SUCCESS, TRANSIENT, PERMANENT, SHED, BROKEN}
+
+        private final Status status;
+        private final int httpStatus;
+        private final int code;
+        private final String message;
+        private final boolean outboxed;
+
+        Outcome(final Status status, final int httpStatus, final int code, final String message) {
+            this(status, httpStatus, code, message, false);
+        }
+
+        private Outcome(final Status status, final int httpStatus, final int code, final String message, final boolean outboxed) {
+            this.status = status;
+            this.httpStatus = httpStatus;
+            this.code = code;
+            this.message = message;
+            this.outboxed = outboxed;
+        }
+
+        /**
+         * webhook 熔断中, 没有发请求.
+         */
+        static Outcome broken() {
+            return new Outcome(Status.BROKEN, 0, -1, "circuit open");
+        }
+
+        Outcome outboxed() {
+            return new Outcome(status, httpStatus, code, message, true);
+        }
+
+        Status getStatus() {
+            return status;
+        }
+
+        boolean isSuccess() {
+            return status == Status.SUCCESS;
+        }
+
+        int getHttpStatus() {
+            return httpStatus;
+        }
+
+        int getCode() {
+            return code;
+        }
+
+        String getMessage() {
+            return message;
+        }
+
+        boolean isOutboxed() {
+            return outboxed;
+        }
+
+        @Override
+        public String toString() {
+            return status + " http=" + httpStatus + " code=" + code + " " + message + (outboxed ? " (saved to outbox)" : "");
+        }
+    }
+}
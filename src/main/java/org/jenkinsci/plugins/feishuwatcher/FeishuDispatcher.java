@@ -0,0 +1,197 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 有界的异步发送队列.
+ * <p>
+ * 监听器线程 (保存配置的 Stapler 线程, 构建执行线程, Remoting 线程) 只负责入队,
+ * 由少量后台线程去做真正的 HTTP 推送. 队列满时按 {@link OverflowPolicy} 处理.
+ */
+public final class FeishuDispatcher {
+    private static final Logger LOGGER = Logger.getLogger(FeishuDispatcher.class.getName());
+
+    private static final String PREFIX = FeishuDispatcher.class.getName() + ".";
+
+    /**
+     * 其他组件在队列排空之后才能关闭, 见 {@link FeishuHttpTransport#shutdown()}.
+     */
+    static final String DRAINED = "feishu-watcher.dispatcher-drained";
+
+    static final int CAPACITY = SystemProperties.getInteger(PREFIX + "capacity", 1000);
+    static final int WORKERS = SystemProperties.getInteger(PREFIX + "workers", 2);
+    static final int FANOUT_THREADS = SystemProperties.getInteger(PREFIX + "fanoutThreads", 8);
+    /**
+     * 等待推送的单个 webhook 请求最多排多少个; 满了的直接写入 outbox, 见 {@link FeishuDelivery}.
+     */
+    static final int FANOUT_CAPACITY = SystemProperties.getInteger(PREFIX + "fanoutCapacity", 1000);
+    static final long BLOCK_TIMEOUT_MS = SystemProperties.getLong(PREFIX + "blockTimeoutMs", 1000L);
+    static final long DRAIN_TIMEOUT_SECONDS = SystemProperties.getLong(PREFIX + "drainTimeoutSeconds", 10L);
+    /**
+     * DROP_OLDEST 时腾位置再入队的最多次数.
+     */
+    private static final int DROP_OLDEST_ATTEMPTS = 3;
+    static final OverflowPolicy POLICY = OverflowPolicy.parse(SystemProperties.getString(PREFIX + "overflowPolicy"));
+
+    public enum OverflowPolicy {
+        /** 丢弃队列里最老的一条, 新的入队 */
+        DROP_OLDEST,
+        /** 丢弃新来的这一条 */
+        DROP_NEWEST,
+        /** 调用方最多等待 blockTimeoutMs, 超时则丢弃新来的这一条 */
+        BLOCK;
+
+        static OverflowPolicy parse(final String value) {
+            if (value == null) return DROP_OLDEST;
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LOGGER.warning("unknown overflow policy " + value + ", using " + DROP_OLDEST);
+                return DROP_OLDEST;
+            }
+        }
+    }
+
+    private static volatile FeishuDispatcher instance;
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor fanout;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private FeishuDispatcher() {
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(CAPACITY);
+        executor = new ThreadPoolExecutor(WORKERS, WORKERS, 60L, TimeUnit.SECONDS, queue,
+                new NamingThreadFactory(new DaemonThreadFactory(), "FeishuWatcher.dispatch"),
+                overflowHandler(POLICY));
+        // 一条通知有多个 webhook 时并发推送; 分发线程不等推送结果, 这里也要有界, 满了抛 RejectedExecutionException
+        fanout = new ThreadPoolExecutor(FANOUT_THREADS, FANOUT_THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(FANOUT_CAPACITY),
+                new NamingThreadFactory(new DaemonThreadFactory(), "FeishuWatcher.fanout"),
+                new ThreadPoolExecutor.AbortPolicy());
+        fanout.allowCoreThreadTimeOut(true);
+    }
+
+    @Nonnull
+    static FeishuDispatcher get() {
+        FeishuDispatcher dispatcher = instance;
+        if (dispatcher != null) return dispatcher;
+        synchronized (FeishuDispatcher.class) {
+            if (instance == null) {
+                instance = new FeishuDispatcher();
+            }
+            return instance;
+        }
+    }
+
+    static FeishuDispatcher peek() {
+        return instance;
+    }
+
+    /**
+     * 入队后立即返回, 不会在调用方线程上做网络 IO.
+     */
+    void enqueue(final @Nonnull Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * 单个 webhook 推送用的线程池, 与分发线程分开以免互相等待. 队列有界, 满了 execute 抛 RejectedExecutionException.
+     */
+    @Nonnull
+    ExecutorService fanout() {
+        return fanout;
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public OverflowPolicy getPolicy() {
+        return POLICY;
+    }
+
+    private RejectedExecutionHandler overflowHandler(final OverflowPolicy policy) {
+        return (task, pool) -> {
+            if (pool.isShutdown()) {
+                drop("dispatcher is shut down");
+                return;
+            }
+            switch (policy) {
+                case DROP_OLDEST:
+                    // 不能再调 execute: 并发入队时队列可能马上又满, 会在调用方线程上无限递归
+                    for (int i = 0; i < DROP_OLDEST_ATTEMPTS; i++) {
+                        if (pool.getQueue().poll() != null) {
+                            drop("queue full, dropped oldest");
+                        }
+                        if (pool.getQueue().offer(task)) return;
+                    }
+                    drop("queue full, dropped newest after " + DROP_OLDEST_ATTEMPTS + " attempts");
+                    break;
+                case BLOCK:
+                    try {
+                        if (!pool.getQueue().offer(task, BLOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                            drop("queue full after waiting " + BLOCK_TIMEOUT_MS + "ms");
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        drop("interrupted while waiting for queue");
+                    }
+                    break;
+                case DROP_NEWEST:
+                default:
+                    drop("queue full, dropped newest");
+            }
+        };
+    }
+
+    private void drop(final String reason) {
+        long count = dropped.incrementAndGet();
+        LOGGER.log(Level.WARNING, "feishu notification dropped ({0}), total dropped: {1}", new Object[]{reason, count});
+    }
+
+    /**
+     * 停止接收新任务, 在限定时间内把队列里剩下的通知发完.
+     */
+    @Terminator(requires = EventCoalescer.FLUSHED, attains = DRAINED)
+    public static void shutdown() throws InterruptedException {
+        // 排空期间分发线程还要通过 get() 拿到 fan-out 线程池, 这里不能持有锁
+        FeishuDispatcher dispatcher = instance;
+        if (dispatcher == null) return;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_TIMEOUT_SECONDS);
+        ThreadPoolExecutor executor = dispatcher.executor;
+        executor.shutdown();
+        if (!executor.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            int pending = executor.shutdownNow().size();
+            LOGGER.warning("feishu dispatcher did not drain in time, " + pending + " notifications not sent");
+        }
+        ThreadPoolExecutor fanout = dispatcher.fanout;
+        fanout.shutdown();
+        if (!fanout.awaitTermination(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+            int pending = fanout.shutdownNow().size();
+            LOGGER.warning("feishu fan-out did not drain in time, " + pending + " webhook pushes not sent");
+        }
+        // 不把 instance 置空: 关闭之后再来的任务会被拒绝, 而不是重新创建线程池
+    }
+}
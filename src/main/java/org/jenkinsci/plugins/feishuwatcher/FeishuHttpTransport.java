@@ -0,0 +1,197 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.init.Terminator;
+import jenkins.util.SystemProperties;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+
+import javax.annotation.Nonnull;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 插件范围内共享的飞书 webhook HTTP 传输层.
+ * <p>
+ * 一个带 keep-alive 的连接池 + 缓存的 TLS 上下文, 避免每次推送都重新握手.
+ * 空闲连接由后台线程定期回收, Jenkins 停止时关闭.
+ */
+public final class FeishuHttpTransport {
+    private static final Logger LOGGER = Logger.getLogger(FeishuHttpTransport.class.getName());
+
+    private static final String PREFIX = FeishuHttpTransport.class.getName() + ".";
+
+    static final int MAX_TOTAL = SystemProperties.getInteger(PREFIX + "maxTotal", 20);
+    static final int MAX_PER_ROUTE = SystemProperties.getInteger(PREFIX + "maxPerRoute", 5);
+    static final int CONNECT_TIMEOUT_MS = SystemProperties.getInteger(PREFIX + "connectTimeoutMs", 5000);
+    static final int SOCKET_TIMEOUT_MS = SystemProperties.getInteger(PREFIX + "socketTimeoutMs", 10000);
+    static final long KEEP_ALIVE_SECONDS = SystemProperties.getLong(PREFIX + "keepAliveSeconds", 60L);
+    static final long IDLE_EVICT_SECONDS = SystemProperties.getLong(PREFIX + "idleEvictSeconds", 30L);
+
+    private static FeishuHttpTransport instance;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+
+    private FeishuHttpTransport() {
+        // 只用 TLSv1.2 及以上, 校验证书里的主机名; webhook 地址里带着机器人的 token, 请求可能还带着签名
+        SSLContext sslContext = SSLContexts.createDefault();
+        SSLConnectionSocketFactory sslConnectionSocketFactory = new SSLConnectionSocketFactory(
+                sslContext,
+                protocols(sslContext, "TLSv1.3", "TLSv1.2"),
+                null,
+                SSLConnectionSocketFactory.getDefaultHostnameVerifier()
+        );
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", sslConnectionSocketFactory)
+                .build();
+
+        connectionManager = new PoolingHttpClientConnectionManager(registry);
+        connectionManager.setMaxTotal(MAX_TOTAL);
+        connectionManager.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+        connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT_MS)
+                .setSocketTimeout(SOCKET_TIMEOUT_MS)
+                .setConnectionRequestTimeout(CONNECT_TIMEOUT_MS)
+                .build();
+
+        // 服务端没给 Keep-Alive 头时默认无限保持, 这里给一个上限
+        ConnectionKeepAliveStrategy keepAlive = (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            long max = TimeUnit.SECONDS.toMillis(KEEP_ALIVE_SECONDS);
+            return duration > 0 ? Math.min(duration, max) : max;
+        };
+
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAlive)
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_EVICT_SECONDS, TimeUnit.SECONDS)
+                .disableCookieManagement()
+                .build();
+    }
+
+    /**
+     * 当前 JRE 支持的那些协议; 老的 Java 8 没有 TLSv1.3, 直接设置会在握手时报错.
+     */
+    private static String[] protocols(final SSLContext context, final String... wanted) {
+        List<String> supported = Arrays.asList(context.getSupportedSSLParameters().getProtocols());
+        List<String> protocols = new ArrayList<>();
+        for (String protocol : wanted) {
+            if (supported.contains(protocol)) protocols.add(protocol);
+        }
+        return protocols.toArray(new String[0]);
+    }
+
+    @Nonnull
+    static synchronized FeishuHttpTransport get() {
+        if (instance == null) {
+            instance = new FeishuHttpTransport();
+        }
+        return instance;
+    }
+
+    @Nonnull
+    Response post(final @Nonnull String url, final @Nonnull FeishuPayload payload) throws IOException {
+        HttpPost post = new HttpPost(url);
+        // 直接用编码好的字节, 不再拷贝一次
+        post.setEntity(new ByteArrayEntity(payload.bytes(), ContentType.APPLICATION_JSON));
+        // 读完响应体后连接自动归还连接池
+        try (CloseableHttpResponse response = client.execute(post)) {
+            HttpEntity entity = response.getEntity();
+            String body = entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+            return new Response(response.getStatusLine().getStatusCode(), body);
+        }
+    }
+
+    /**
+     * 整个连接池的统计 (leased/pending/available/max).
+     */
+    @Nonnull
+    public PoolStats getTotalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * 每个 host 的连接池统计.
+     */
+    @Nonnull
+    public Map<String, PoolStats> getRouteStats() {
+        Map<String, PoolStats> stats = new LinkedHashMap<>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            stats.put(route.getTargetHost().toHostString(), connectionManager.getStats(route));
+        }
+        return stats;
+    }
+
+    /**
+     * 如果连接池已经创建则返回它, 否则返回 null (只用于展示, 不触发创建).
+     */
+    static synchronized FeishuHttpTransport peek() {
+        return instance;
+    }
+
+    @Terminator(requires = FeishuDispatcher.DRAINED)
+    public static synchronized void shutdown() {
+        if (instance == null) return;
+        try {
+            instance.client.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "failed to close feishu http client", e);
+        }
+        instance = null;
+    }
+
+    static final class Response {
+        private final int status;
+        private final String body;
+
+        Response(final int status, final String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String getBody() {
+            return body;
+        }
+
+        @Override
+        public String toString() {
+            return status + " " + body;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * 插件共享的 Jackson {@link ObjectMapper}.
+ * <p>
+ * ObjectMapper 配置好之后是线程安全的, 创建它却很贵 (序列化器缓存, 反射元数据),
+ * 所以整个插件只用这一个, 不要在发送路径上 new.
+ */
+final class FeishuJson {
+
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private FeishuJson() {
+    }
+}
@@ -0,0 +1,219 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 发送失败的消息的落盘队列: $JENKINS_HOME/feishu-watcher/outbox.jsonl, 每行一条, 只追加.
+ * Jenkins 启动时重放一次.
+ * <p>
+ * 最多保留 {@link #MAX_ENTRIES} 条, 满了丢掉最老的, 长时间连不上飞书也不会无限增长.
+ * webhook 地址里带着机器人的 token, 用 {@link Secret} 加密之后再写盘.
+ */
+final class FeishuOutbox {
+    private static final Logger LOGGER = Logger.getLogger(FeishuOutbox.class.getName());
+
+    private static final String OUTBOX = "outbox.jsonl";
+    private static final String REPLAY = "outbox.jsonl.replay";
+
+    static final int MAX_ENTRIES = SystemProperties.getInteger(FeishuOutbox.class.getName() + ".maxEntries", 1000);
+
+    private static final Object LOCK = new Object();
+
+    /**
+     * outbox 文件当前的行数, -1 表示还没数过. 由 LOCK 保护.
+     */
+    private static int entries = -1;
+
+    private FeishuOutbox() {
+    }
+
+    /**
+     * Jenkins 已经停止 (或者投递通道在 Jenkins 之外运行, 比如 benchmark 模块的压测) 时没有目录可写.
+     */
+    @Nonnull
+    static File dir() throws IOException {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) throw new IOException("Jenkins is not running");
+        return new File(jenkins.getRootDir(), "feishu-watcher");
+    }
+
+    static void append(final @Nonnull String url, final @Nonnull FeishuPayload payload,
+                       final @CheckForNull Fingerprint fingerprint, final @CheckForNull EventType event) throws IOException {
+        ObjectNode entry = FeishuJson.MAPPER.createObjectNode();
+        entry.put("time", System.currentTimeMillis());
+        entry.put("webhook", Secret.fromString(url).getEncryptedValue());
+        if (fingerprint != null) {
+            entry.put("resource", fingerprint.getResource());
+            entry.put("fingerprint", fingerprint.getHash());
+        }
+        if (event != null) entry.put("event", event.name());
+        entry.put("payload", payload.toString());
+        String line = FeishuJson.MAPPER.writeValueAsString(entry);
+
+        synchronized (LOCK) {
+            File dir = dir();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("unable to create " + dir);
+            }
+            File outbox = new File(dir, OUTBOX);
+            if (entries < 0) {
+                entries = outbox.isFile() ? readLines(outbox).size() : 0;
+            }
+            if (entries >= MAX_ENTRIES) {
+                entries = trim(outbox);
+            }
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(outbox, true), StandardCharsets.UTF_8)) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            entries++;
+        }
+        LOGGER.info("saved undeliverable message for " + FeishuWatcher.maskWebhook(url) + " to outbox");
+    }
+
+    /**
+     * 丢掉最老的条目, 只留最新的九成, 不用每追加一条就重写一次文件.
+     *
+     * @return 剩下的条数
+     */
+    private static int trim(final File outbox) throws IOException {
+        List<String> lines = readLines(outbox);
+        int keep = Math.max(0, MAX_ENTRIES * 9 / 10);
+        if (lines.size() <= keep) return lines.size();
+        List<String> newest = lines.subList(lines.size() - keep, lines.size());
+        File tmp = new File(outbox.getPath() + ".tmp");
+        Files.write(tmp.toPath(), newest, StandardCharsets.UTF_8);
+        Files.move(tmp.toPath(), outbox.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.warning("feishu outbox is full, dropped the " + (lines.size() - keep) + " oldest messages");
+        return keep;
+    }
+
+    private static List<String> readLines(final File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * 新的条目里是加密过的 webhook; 老版本写的是明文 url.
+     */
+    @CheckForNull
+    private static String url(final JsonNode entry) {
+        if (entry.hasNonNull("webhook")) {
+            Secret secret = Secret.decrypt(entry.get("webhook").asText());
+            return secret == null ? null : secret.getPlainText();
+        }
+        return entry.hasNonNull("url") ? entry.get("url").asText() : null;
+    }
+
+    @CheckForNull
+    private static EventType event(final @CheckForNull String name) {
+        if (name == null) return null;
+        try {
+            return EventType.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @CheckForNull
+    private static Fingerprint fingerprint(final JsonNode entry) {
+        if (!entry.hasNonNull("fingerprint")) return null;
+        return new Fingerprint(entry.path("resource").asText(""), entry.get("fingerprint").asText());
+    }
+
+    /**
+     * 把 outbox 挪到 replay 文件再逐条重新投递, 全部有结果之后删除 replay 文件.
+     * 重放中再次失败的消息会被写回新的 outbox; 重放中途崩溃则下次启动时再重放一遍,
+     * 这时同一条消息可能在 replay 文件里出现两次, 按指纹去重.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replay() {
+        final File replay;
+        final List<String> lines;
+        synchronized (LOCK) {
+            File dir;
+            try {
+                dir = dir();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "unable to read feishu outbox", e);
+                return;
+            }
+            File outbox = new File(dir, OUTBOX);
+            replay = new File(dir, REPLAY);
+            try {
+                if (outbox.isFile()) {
+                    if (replay.isFile()) {
+                        Files.write(replay.toPath(), Files.readAllBytes(outbox.toPath()), StandardOpenOption.APPEND);
+                        Files.delete(outbox.toPath());
+                    } else {
+                        Files.move(outbox.toPath(), replay.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+                entries = 0;
+                if (!replay.isFile()) return;
+                List<String> all = readLines(replay);
+                // 多次重放中途崩溃时 replay 文件会累积, 同样只重放最新的
+                lines = all.size() > MAX_ENTRIES ? new ArrayList<>(all.subList(all.size() - MAX_ENTRIES, all.size())) : all;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "unable to read feishu outbox", e);
+                return;
+            }
+        }
+
+        LOGGER.info("replaying " + lines.size() + " feishu messages from outbox");
+        List<CompletableFuture<FeishuDelivery.Outcome>> futures = new ArrayList<>();
+        for (String line : lines) {
+            try {
+                JsonNode entry = FeishuJson.MAPPER.readTree(line);
+                String url = url(entry);
+                if (url == null) {
+                    LOGGER.warning("skipping outbox entry whose webhook cannot be decrypted");
+                    continue;
+                }
+                Fingerprint fingerprint = fingerprint(entry);
+                if (fingerprint != null && !fingerprint.firstSeen(url)) continue;
+                futures.add(FeishuDelivery.deliver(url, FeishuPayload.of(entry.path("payload").asText()),
+                        fingerprint, event(entry.path("event").asText(null)), System.nanoTime()));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "skipping corrupt outbox entry", e);
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((ignored, error) -> {
+            synchronized (LOCK) {
+                if (!replay.delete()) {
+                    LOGGER.warning("unable to delete " + replay);
+                }
+            }
+        });
+    }
+}
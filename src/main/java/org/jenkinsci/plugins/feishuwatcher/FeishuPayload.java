@@ -0,0 +1,38 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 已经编码好的请求体 (UTF-8 JSON). 不可变, 可以在重试, 多个 webhook 之间共用同一份字节.
+ */
+public final class FeishuPayload {
+
+    private final byte[] bytes;
+
+    FeishuPayload(final @Nonnull byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    @Nonnull
+    static FeishuPayload of(final @Nonnull String json) {
+        return new FeishuPayload(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 直接交给 HTTP 层, 不要修改.
+     */
+    @Nonnull
+    byte[] bytes() {
+        return bytes;
+    }
+
+    public int size() {
+        return bytes.length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
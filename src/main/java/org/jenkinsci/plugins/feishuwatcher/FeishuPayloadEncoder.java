@@ -0,0 +1,317 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * 用流式 JsonGenerator 直接把飞书的 text / post 消息写成 UTF-8 字节,
+ * 不再先拼一棵 Message 对象树再序列化成 String.
+ * <p>
+ * 每个线程复用一块缓冲区, 写完之后只拷贝一次, 得到恰好大小的 {@link FeishuPayload}.
+ * <p>
+ * 请求体不超过 {@link #MAX_BYTES}: 正文这种长度不定的部分先不写, 只记下位置和转义好的字节;
+ * 其余部分写完之后就知道还剩多少字节, 正文按剩余字节截断后在拷贝时插进去, 整条消息只序列化一次.
+ */
+final class FeishuPayloadEncoder {
+    private static final Logger LOGGER = Logger.getLogger(FeishuPayloadEncoder.class.getName());
+
+    private static final String PREFIX = FeishuPayloadEncoder.class.getName() + ".";
+
+    /**
+     * 飞书自定义机器人的请求体不能超过 20 KB, 留一点余量给签名等字段.
+     */
+    static final int MAX_BYTES = SystemProperties.getInteger(PREFIX + "maxBytes", 19 * 1024);
+
+    /**
+     * 一条消息最多 @ 的人数, 见 {@link Recipients#limit(int)}.
+     */
+    static final int MAX_MENTIONS = SystemProperties.getInteger(PREFIX + "maxMentions", 20);
+
+    private static final JsonStringEncoder QUOTER = JsonStringEncoder.getInstance();
+
+    /**
+     * 截断处的说明, 已经转义好.
+     */
+    private static final byte[] TRUNCATED = QUOTER.quoteAsUTF8("\n...(内容过长, 已截断)");
+
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+    private FeishuPayloadEncoder() {
+    }
+
+    /**
+     * {"msg_type":"text","content":{"text":"..."}}
+     */
+    @Nonnull
+    static FeishuPayload text(final @Nonnull String text) {
+        return text(text, "", "");
+    }
+
+    /**
+     * 同 {@link #text(String)}, 文本是 prefix + body + suffix, 超出大小时只截断 body.
+     */
+    @Nonnull
+    static FeishuPayload text(final @Nonnull String prefix, final @Nonnull String body, final @Nonnull String suffix) {
+        return encode(b -> {
+            JsonGenerator g = b.g;
+            g.writeStringField("msg_type", "text");
+            g.writeObjectFieldStart("content");
+            g.writeFieldName("text");
+            b.writeString(prefix, body, suffix);
+            g.writeEndObject();
+        });
+    }
+
+    /**
+     * {"msg_type":"post","content":{"post":{"zh_cn":{"title":"...","content":[[ ... ]]}}}}
+     */
+    @Nonnull
+    static FeishuPayload post(final @Nonnull String title, final @Nonnull PostBody body) {
+        return encode(b -> {
+            JsonGenerator g = b.g;
+            g.writeStringField("msg_type", "post");
+            g.writeObjectFieldStart("content");
+            g.writeObjectFieldStart("post");
+            g.writeObjectFieldStart("zh_cn");
+            g.writeStringField("title", title);
+            g.writeArrayFieldStart("content");
+            g.writeStartArray();
+            body.write(new PostWriter(b));
+            g.writeEndArray();
+            g.writeEndArray();
+            g.writeEndObject();
+            g.writeEndObject();
+            g.writeEndObject();
+        });
+    }
+
+    private static FeishuPayload encode(final Fields fields) {
+        Buffer buffer = BUFFER.get();
+        buffer.reset();
+        try (JsonGenerator g = FeishuJson.MAPPER.getFactory().createGenerator(buffer, JsonEncoding.UTF8)) {
+            Budget budget = new Budget(buffer, g);
+            g.writeStartObject();
+            fields.write(budget);
+            g.writeEndObject();
+            g.flush();
+            return budget.finish();
+        } catch (IOException e) {
+            // 写的是内存缓冲区, 不会发生
+            throw new IllegalStateException(e);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    private interface Fields {
+        void write(Budget budget) throws IOException;
+    }
+
+    /**
+     * 可以直接拿到内部数组的缓冲区, 拼接时少拷贝一次.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(2000);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * 一次编码: 定长部分写进缓冲区, 可以截断的部分记成 {@link Slot}, 最后一起拼起来.
+     */
+    private static final class Budget {
+        final Buffer buffer;
+        final JsonGenerator g;
+        final List<Slot> slots = new ArrayList<>(2);
+
+        Budget(final Buffer buffer, final JsonGenerator g) {
+            this.buffer = buffer;
+            this.g = g;
+        }
+
+        /**
+         * 写一个字符串值 prefix + suffix, 并记下 body 要插入的位置.
+         */
+        void writeString(final String prefix, final String body, final String suffix) throws IOException {
+            g.writeString(prefix + suffix);
+            if (body.isEmpty()) return;
+            g.flush();
+            // 缓冲区最后是 suffix 转义后的字节和结束的引号
+            int offset = buffer.size() - 1 - QUOTER.quoteAsUTF8(suffix).length;
+            slots.add(new Slot(offset, body));
+        }
+
+        FeishuPayload finish() {
+            final int fixed = buffer.size();
+            if (!slots.isEmpty()) {
+                // 从短到长分配剩下的字节, 短的尽量完整保留
+                List<Slot> bySize = new ArrayList<>(slots);
+                bySize.sort(Comparator.comparingInt(slot -> slot.bytes.length));
+                int remaining = Math.max(0, MAX_BYTES - fixed);
+                for (int i = 0; i < bySize.size(); i++) {
+                    remaining -= bySize.get(i).fit(remaining / (bySize.size() - i));
+                }
+            }
+
+            int size = fixed;
+            for (Slot slot : slots) size += slot.length();
+            if (size > MAX_BYTES) {
+                LOGGER.warning("feishu message is " + size + " bytes even without its body, over the " + MAX_BYTES + " byte budget");
+            }
+            final byte[] out = new byte[size];
+            final byte[] buf = buffer.array();
+            int from = 0;
+            int to = 0;
+            for (Slot slot : slots) {
+                System.arraycopy(buf, from, out, to, slot.offset - from);
+                to += slot.offset - from;
+                from = slot.offset;
+                System.arraycopy(slot.bytes, 0, out, to, slot.cut);
+                to += slot.cut;
+                if (slot.truncated) {
+                    System.arraycopy(TRUNCATED, 0, out, to, TRUNCATED.length);
+                    to += TRUNCATED.length;
+                }
+            }
+            System.arraycopy(buf, from, out, to, fixed - from);
+            return new FeishuPayload(out);
+        }
+    }
+
+    /**
+     * 一段可以截断的文本, 已经转义成 JSON 字符串里的 UTF-8 字节.
+     */
+    private static final class Slot {
+        final int offset;
+        final byte[] bytes;
+        /**
+         * 转义之前就已经超过整个预算, 只转义了前面一段
+         */
+        final boolean clipped;
+
+        int cut;
+        boolean truncated;
+
+        Slot(final int offset, final String text) {
+            this.offset = offset;
+            // 每个字符至少一个字节, 超过预算的部分不用转义
+            int end = text.length();
+            if (end > MAX_BYTES) {
+                end = Character.isHighSurrogate(text.charAt(MAX_BYTES - 1)) ? MAX_BYTES - 1 : MAX_BYTES;
+            }
+            this.clipped = end < text.length();
+            this.bytes = QUOTER.quoteAsUTF8(clipped ? text.substring(0, end) : text);
+        }
+
+        /**
+         * @return 实际占用的字节数
+         */
+        int fit(final int budget) {
+            if (!clipped && bytes.length <= budget) {
+                cut = bytes.length;
+            } else if (budget >= TRUNCATED.length) {
+                cut = boundary(bytes, budget - TRUNCATED.length);
+                truncated = true;
+            } else {
+                cut = 0;
+            }
+            return length();
+        }
+
+        int length() {
+            return cut + (truncated ? TRUNCATED.length : 0);
+        }
+
+        /**
+         * 不超过 limit 的最长前缀, 不切开转义序列和多字节字符.
+         */
+        private static int boundary(final byte[] bytes, final int limit) {
+            int i = 0;
+            while (i < bytes.length) {
+                int len;
+                if (bytes[i] == '\\') {
+                    len = i + 1 < bytes.length && bytes[i + 1] == 'u' ? 6 : 2;
+                } else if ((bytes[i] & 0x80) == 0) {
+                    len = 1;
+                } else if ((bytes[i] & 0xE0) == 0xC0) {
+                    len = 2;
+                } else if ((bytes[i] & 0xF0) == 0xE0) {
+                    len = 3;
+                } else {
+                    len = 4;
+                }
+                if (i + len > limit) break;
+                i += len;
+            }
+            return i;
+        }
+    }
+
+    interface PostBody {
+        void write(PostWriter writer) throws IOException;
+    }
+
+    /**
+     * post 消息一行里的各个元素.
+     */
+    static final class PostWriter {
+        private final Budget budget;
+        private final JsonGenerator g;
+
+        private PostWriter(final Budget budget) {
+            this.budget = budget;
+            this.g = budget.g;
+        }
+
+        PostWriter text(final String text) throws IOException {
+            g.writeStartObject();
+            g.writeStringField("tag", "text");
+            g.writeStringField("text", text);
+            g.writeEndObject();
+            return this;
+        }
+
+        /**
+         * 文本是 prefix + body + suffix, 超出大小时只截断 body.
+         */
+        PostWriter text(final String prefix, final String body, final String suffix) throws IOException {
+            g.writeStartObject();
+            g.writeStringField("tag", "text");
+            g.writeFieldName("text");
+            budget.writeString(prefix, body, suffix);
+            g.writeEndObject();
+            return this;
+        }
+
+        PostWriter link(final String text, final String href) throws IOException {
+            g.writeStartObject();
+            g.writeStringField("tag", "a");
+            g.writeStringField("text", text);
+            g.writeStringField("href", href);
+            g.writeEndObject();
+            return this;
+        }
+
+        PostWriter at(final String userId) throws IOException {
+            g.writeStartObject();
+            g.writeStringField("tag", "at");
+            g.writeStringField("user_id", userId);
+            g.writeEndObject();
+            return this;
+        }
+    }
+}
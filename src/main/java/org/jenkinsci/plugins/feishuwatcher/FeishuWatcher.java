@@ -1,43 +1,39 @@
 package org.jenkinsci.plugins.feishuwatcher;
 
-import com.arronlong.httpclientutil.HttpClientUtil;
-import com.arronlong.httpclientutil.common.HttpConfig;
-import com.arronlong.httpclientutil.exception.HttpProcessException;
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import hudson.Plugin;
 import hudson.model.User;
 import hudson.plugins.jobConfigHistory.JobConfigHistory;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
-import org.apache.http.client.HttpClient;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContexts;
 import org.jenkinsci.plugins.feishuwatcher.jobConfigHistory.ConfigHistory;
-import com.google.common.base.Splitter;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.mail.MessagingException;
 import javax.mail.internet.AddressException;
-import javax.net.ssl.SSLContext;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class FeishuWatcher {
     private static final Logger LOGGER = Logger.getLogger(FeishuWatcher.class.getName());
 
+    /**
+     * 一条通知发往所有 webhook 的总截止时间.
+     */
+    static final long DEADLINE_MS = SystemProperties.getLong(FeishuWatcher.class.getName() + ".deadlineMs", 15000L);
+
     private final @Nonnull
     Jenkins jenkins;
     private final @Nonnull
@@ -74,39 +70,91 @@ public class FeishuWatcher {
     }
 
 
-    public String send(final FeishuWatcherNotification notification) throws MessagingException, AddressException {
+    /**
+     * 并发推送到所有 webhook, 不阻塞调用的分发线程: 返回的 future 在所有 webhook 都有结果,
+     * 或者过了 {@link #DEADLINE_MS} 时完成. 超时的推送 (包括还在限流排队, 退避重试的) 不会被取消,
+     * 会在后台继续完成, 只是结果里记为超时.
+     *
+     * @return 没有 webhook 时返回 null
+     */
+    @CheckForNull
+    public CompletableFuture<DeliveryResult> send(final FeishuWatcherNotification notification) throws MessagingException, AddressException {
         //if (!notification.shouldNotify()) return null; 这里判断 收件人 是否是空了，是空就不通知了。
-        String webhookurl = notification.getWebhookurl();
-
-        String[] urls;
-        if (webhookurl.contains(",")) {
-            urls = webhookurl.split(",");
-        } else {
-            urls = new String[]{webhookurl};
-        }
-        if (urls.length == 0) {
+        List<String> webhooks = notification.getWebhooks();
+        if (webhooks.isEmpty()) {
             LOGGER.warning("webhookurl is null");
             return null;
         }
 
-        String data = "";
+        // 窗口内已经发过的相同消息不再发送
+        final List<String> suppressed = new ArrayList<>();
+        final Fingerprint fingerprint = Fingerprint.of(notification);
+        final List<String> urls = new ArrayList<>(webhooks.size());
+        for (String url : webhooks) {
+            if (fingerprint.firstSeen(url)) {
+                urls.add(url);
+            } else {
+                suppressed.add(url);
+                DeliveryAudit.record(notification.getEvent(), url, "DUPLICATE", notification.getCreated(), 0, 0, -1);
+            }
+        }
+        if (urls.isEmpty()) {
+            return CompletableFuture.completedFuture(collect(suppressed, Collections.emptyMap()));
+        }
+
+        final FeishuPayload payload;
         if(notification.isPost()){
-             data = forPost(notification);
+            payload = forPost(notification);
         }else{
-            data = forText(notification);
+            payload = forText(notification);
         }
-        LOGGER.info("will send msg: " + data);
+        LOGGER.log(Level.FINE, "will send msg: {0}", payload);
 
-        for (String u : urls) {
+        final Map<String, CompletableFuture<FeishuDelivery.Outcome>> futures = new LinkedHashMap<>();
+        for (String url : urls) {
+            futures.put(url, FeishuDelivery.deliver(url, payload, fingerprint, notification.getEvent(), notification.getCreated()));
+        }
+
+        // 先到的一方完成结果: 全部返回, 或者截止时间到了
+        final CompletableFuture<DeliveryResult> result = new CompletableFuture<>();
+        final ScheduledFuture<?> deadline = Timer.get().schedule(
+                () -> result.complete(collect(suppressed, futures)), DEADLINE_MS, TimeUnit.MILLISECONDS);
+        CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).whenComplete((done, ex) -> {
+            deadline.cancel(false);
+            result.complete(collect(suppressed, futures));
+        });
+        return result;
+    }
+
+    /**
+     * 按各个 webhook 的 future 当前的状态汇总, 还没完成的记为超时.
+     */
+    private static DeliveryResult collect(final List<String> suppressed,
+                                          final Map<String, CompletableFuture<FeishuDelivery.Outcome>> futures) {
+        final DeliveryResult result = new DeliveryResult();
+        for (String url : suppressed) {
+            result.suppressed(url);
+        }
+        for (Map.Entry<String, CompletableFuture<FeishuDelivery.Outcome>> e : futures.entrySet()) {
+            final String url = e.getKey();
             try {
-                String msg = push(u, data);
-                LOGGER.info("send msg result" + msg);
-            } catch (HttpProcessException | KeyManagementException | NoSuchAlgorithmException e) {
-                LOGGER.info("send msg result" + e.getMessage());
-                e.printStackTrace();
+                FeishuDelivery.Outcome outcome = e.getValue().getNow(null);
+                if (outcome == null) {
+                    result.timedOut(url);
+                    continue;
+                }
+                LOGGER.fine("send msg result" + outcome);
+                if (outcome.isSuccess()) {
+                    result.succeeded(url);
+                } else {
+                    result.failed(url, outcome.toString());
+                }
+            } catch (CompletionException | CancellationException ex) {
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                result.failed(url, String.valueOf(cause.getMessage()));
             }
         }
-        return "";
+        return result;
     }
 
     /**
@@ -121,46 +169,41 @@ public class FeishuWatcher {
      * @param notification
      * @return
      */
-    private String forText(final FeishuWatcherNotification notification) {
-        //组装内容
-        String mention = notification.getRecipients();
-        List<String> mentionedList = getMentionedList(mention);
-        StringBuilder content = new StringBuilder();
-        content.append(notification.getMailSubject());
-        content.append("\n");
-        content.append("\n");
+    private FeishuPayload forText(final FeishuWatcherNotification notification) {
+        //组装内容; 正文太长时由 FeishuPayloadEncoder 按剩余字节截断
+        Recipients recipients = notification.getRecipients();
+        String mentions = recipients == null ? "" : recipients.limit(FeishuPayloadEncoder.MAX_MENTIONS).getTextMentions();
+        MessageTemplate template = FeishuWatcherGlobalConfiguration.get().template(notification.getEvent());
+        if (template != null) {
+            return FeishuPayloadEncoder.text("", template.text(notification), mentions);
+        }
+        StringBuilder prefix = new StringBuilder();
+        prefix.append(notification.getMailSubject());
+        prefix.append("\n");
+        prefix.append("\n");
         String body = notification.getBody();
         if(StringUtils.isNotEmpty(body)){
-            content.append("说明: \n" + body+ "\n\n");
-        }
-        content.append("发现时间: ");
-        content.append(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
-        content.append("\n");
-
-        content.append("发起者是: ");
-        content.append(notification.getInitiator().getId());
-        content.append("\n");
-        content.append("链接: ");
-        content.append(notification.getArtefactUrl());
-        content.append("\n");
-        for (String mentioned : mentionedList) {
-            if (mentioned.equals("@all")) {
-                content.append("<at user_id=\"all\">所有人</at>\n");
-            } else {
-                content.append("<at user_id=\"" + mentioned + "\">" + mentioned + "</at>\n");
-            }
+            prefix.append("说明: \n");
+        } else {
+            body = "";
         }
-        MessageTextContent mtc = new MessageTextContent(content.toString());
-        MessageText message = new MessageText("text", mtc);
 
-        ObjectMapper mapper = new ObjectMapper();
-        String req = "";
-        try {
-            req = mapper.writeValueAsString(message);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
+        StringBuilder suffix = new StringBuilder();
+        if(!body.isEmpty()){
+            suffix.append("\n\n");
         }
-        return req;
+        suffix.append("发现时间: ");
+        suffix.append(LocalDateTime.now().format(MessageTemplate.TIME));
+        suffix.append("\n");
+
+        suffix.append("发起者是: ");
+        suffix.append(notification.getInitiator().getId());
+        suffix.append("\n");
+        suffix.append("链接: ");
+        suffix.append(notification.getArtefactUrl());
+        suffix.append("\n");
+        suffix.append(mentions);
+        return FeishuPayloadEncoder.text(prefix.toString(), body, suffix.toString());
     }
 
     /**
@@ -196,179 +239,59 @@ public class FeishuWatcher {
      * @param notification
      * @return
      */
-    private String forPost(final FeishuWatcherNotification notification) {
+    private FeishuPayload forPost(final FeishuWatcherNotification notification) {
         //组装内容
-        String mention = notification.getRecipients();
-        List<String> mentionedList = getMentionedList(mention);
-        List<String> mobileList = getMobileList(mention);
+        Recipients recipients = (notification.getRecipients() != null ? notification.getRecipients() : Recipients.EMPTY)
+                .limit(FeishuPayloadEncoder.MAX_MENTIONS);
 
         String subject = notification.getMailSubject();
-
-        List<MessageItem> list = new ArrayList<>();
-        list.add(new MessageItem("text", "\n", null, null));
         String body = notification.getBody();
-        if(StringUtils.isNotEmpty(body)){
-            list.add(new MessageItem("text", "说明: \n" + body+ "\n", null, null));
-            list.add(new MessageItem("text", "\n", null, null));
-        }
-        list.add(new MessageItem("text", "发现时间: " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) + "\n", null, null));
-        list.add(new MessageItem("text", "发起者是: " + notification.getInitiator().getId() + "\n", null, null));
-        list.add(new MessageItem("text", "链接:  ", null, null));
-        list.add(new MessageItem("a", "请点这里", notification.getArtefactUrl(), null));
-        list.add(new MessageItem("text", "\n", null, null));
-        for (String s : mentionedList) {
-            list.add(new MessageItem("at", null, null, s));
-        }
-        for (String s : mobileList) {
-            list.add(new MessageItem("at", null, null, s));
-        }
-        List<List<MessageItem>> conttentList = new ArrayList<>();
-        conttentList.add(list);
-
-        MessageZhCn zhcn = new MessageZhCn(subject, conttentList);
-        MessagePost post = new MessagePost(zhcn);
-        MessageContent content = new MessageContent(post);
-        Message message = new Message("post", content);
-
-        ObjectMapper mapper = new ObjectMapper();
-
-        String req = "";
-        try {
-            req = mapper.writeValueAsString(message);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
-        }
-        return req;
-    }
+        MessageTemplate template = FeishuWatcherGlobalConfiguration.get().template(notification.getEvent());
 
-    private List<String> getMentionedList(String mention) { // # 用户 open_id  列表
-        List<String> list = new ArrayList<>();
-        if (StringUtils.isNotEmpty(mention)) {
-            Iterable<String> iterable = Splitter.on(',').omitEmptyStrings().trimResults().split(mention);
-            for (String result : iterable) {
-                if (result.startsWith("ou") || result.contains("all")) {
-                    list.add(result);
+        return FeishuPayloadEncoder.post(subject, w -> {
+            if (template != null) {
+                template.post(notification, w);
+                for (String s : recipients.getMentioned()) {
+                    w.at(s);
                 }
-            }
-        }
-        return list;
-    }
-
-    private List<String> getMobileList(String mention) { // # 用户 mobile 列表
-        List<String> list = new ArrayList<>();
-        if (StringUtils.isNotEmpty(mention)) {
-            Iterable<String> iterable = Splitter.on(',').omitEmptyStrings().trimResults().split(mention);
-            for (String result : iterable) {
-                if (!result.startsWith("ou") && !result.contains("all")) {
-                    list.add(result);
+                for (String s : recipients.getMobiles()) {
+                    w.at(s);
+                }
+                if (recipients.getOmitted() > 0) {
+                    w.text(" " + recipients.omittedText());
                 }
+                return;
             }
-        }
-        return list;
-    }
-
-    private static String push(String url, String data) throws HttpProcessException, KeyManagementException, NoSuchAlgorithmException {
-        HttpConfig httpConfig;
-        HttpClient httpClient;
-        HttpClientBuilder httpClientBuilder = HttpClients.custom();
-        if (url.startsWith("https")) {
-            SSLContext sslContext = SSLContexts.custom().build();
-            SSLConnectionSocketFactory sslConnectionSocketFactory = new SSLConnectionSocketFactory(
-                    sslContext,
-                    new String[]{"TLSv1", "TLSv1.1", "TLSv1.2"},
-                    null,
-                    NoopHostnameVerifier.INSTANCE
-            );
-            httpClientBuilder.setSSLSocketFactory(sslConnectionSocketFactory);
-        }
-
-        httpClient = httpClientBuilder.build();
-        //普通请求
-        httpConfig = HttpConfig.custom().client(httpClient).url(url).json(data).encoding("utf-8");
-
-        String result = HttpClientUtil.post(httpConfig);
-        return result;
-    }
-
-    private static class MessageText {
-        @JsonProperty("msg_type")
-        public String msgType;
-        @JsonProperty("content")
-        public MessageTextContent content;
-
-        public MessageText(String msgType, MessageTextContent content) {
-            this.msgType = msgType;
-            this.content = content;
-        }
-    }
-
-    private static class MessageTextContent {
-        @JsonProperty("text")
-        public String text;
-
-        public MessageTextContent(String text) {
-            this.text = text;
-        }
-    }
-
-    private static class Message {
-        @JsonProperty("msg_type")
-        public String msgType;
-        @JsonProperty("content")
-        public MessageContent content;
-
-        public Message(String msgType, MessageContent content) {
-            this.msgType = msgType;
-            this.content = content;
-        }
-    }
-
-    private static class MessageContent {
-        @JsonProperty("post")
-        public MessagePost post;
-
-        public MessageContent(MessagePost post) {
-            this.post = post;
-        }
-    }
-
-    private static class MessagePost {
-        @JsonProperty("zh_cn")
-        public MessageZhCn zhcn;
-
-        public MessagePost(MessageZhCn zhcn) {
-            this.zhcn = zhcn;
-        }
-    }
-
-    private static class MessageZhCn {
-        @JsonProperty("title")
-        public String title;
-        @JsonProperty("content")
-        public List<List<MessageItem>> content;
-
-        public MessageZhCn(String title, List<List<MessageItem>> content) {
-            this.title = title;
-            this.content = content;
-        }
+            w.text("\n");
+            if(StringUtils.isNotEmpty(body)){
+                w.text("说明: \n", body, "\n");
+                w.text("\n");
+            }
+            w.text("发现时间: " + LocalDateTime.now().format(MessageTemplate.TIME) + "\n");
+            w.text("发起者是: " + notification.getInitiator().getId() + "\n");
+            w.text("链接:  ");
+            w.link(MessageTemplate.LINK_TEXT, notification.getArtefactUrl());
+            w.text("\n");
+            for (String s : recipients.getMentioned()) {
+                w.at(s);
+            }
+            for (String s : recipients.getMobiles()) {
+                w.at(s);
+            }
+            if (recipients.getOmitted() > 0) {
+                w.text(" " + recipients.omittedText());
+            }
+        });
     }
 
-    private static class MessageItem {
-        @JsonProperty("tag")
-        public String tag;
-        @JsonProperty("text")
-        public String text;
-        @JsonProperty("href")
-        public String href;
-        @JsonProperty("user_id")
-        public String userId;
-
-        public MessageItem(String tag, String text, String href, String userId) {
-            this.tag = tag;
-            this.text = text;
-            this.href = href;
-            this.userId = userId;
-        }
+    /**
+     * webhook 地址里带着机器人的 token, 打日志时只保留末尾几位.
+     */
+    static String maskWebhook(final String url) {
+        if (url == null) return null;
+        int slash = url.lastIndexOf('/');
+        if (slash < 0 || url.length() - slash <= 5) return url;
+        return url.substring(0, slash + 1) + "****" + url.substring(url.length() - 4);
     }
 
 }
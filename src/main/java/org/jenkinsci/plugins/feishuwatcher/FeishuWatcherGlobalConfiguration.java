@@ -0,0 +1,292 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.util.FormValidation;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 全局配置: 有序的 {@link RoutingRule} 和每类事件的 {@link EventTemplate}.
+ * <p>
+ * 没有配置 {@link WatcherJobProperty} / {@link WatcherNodeProperty} 的 job 和节点按这里的规则通知,
+ * 配置了 property 的仍然以 property 为准. 没有配置模板的事件用内置的格式.
+ * 汇总消息的标题和省略行也在这里, 占位符 ${count} 是条数.
+ * 构建队列告警 ({@link QueueWatcher}) 的阈值和接收的 webhook 也在这里.
+ */
+@Extension
+public class FeishuWatcherGlobalConfiguration extends GlobalConfiguration {
+
+    private List<RoutingRule> rules = new ArrayList<>();
+
+    private List<EventTemplate> templates = new ArrayList<>();
+
+    // 汇总消息里几类事件混在一起时的标题, 以及超出行数时的省略行; 留空用内置的文字
+    private String digestSubject;
+    private String digestMore;
+
+    // 构建队列告警, 阈值为 0 表示不检查这一项
+    private int queueLength;
+    private int queueWaitMinutes;
+    private int queueSustainMinutes = 5;
+    private String queueWebhookurl;
+    private String queueMention;
+    private boolean queuePost;
+
+    private transient volatile RoutingTable table = RoutingTable.EMPTY;
+    private transient volatile Map<EventType, MessageTemplate> compiled = Collections.emptyMap();
+    private transient volatile Map<EventType, MessageTemplate> digestSubjects = Collections.emptyMap();
+    private transient volatile MessageTemplate mixedDigestSubject;
+    private transient volatile MessageTemplate digestMoreTemplate;
+    private transient volatile QueueTarget queueTarget;
+
+    public FeishuWatcherGlobalConfiguration() {
+        load();
+        table = new RoutingTable(getRules());
+        compiled = compile(getTemplates());
+        digestSubjects = compileDigestSubjects(getTemplates());
+        mixedDigestSubject = compile(digestSubject);
+        digestMoreTemplate = compile(digestMore);
+        queueTarget = QueueTarget.parse(queueWebhookurl, queueMention, queuePost);
+    }
+
+    @Nonnull
+    public static FeishuWatcherGlobalConfiguration get() {
+        return ExtensionList.lookupSingleton(FeishuWatcherGlobalConfiguration.class);
+    }
+
+    @Nonnull
+    public List<RoutingRule> getRules() {
+        return rules == null ? Collections.<RoutingRule>emptyList() : Collections.unmodifiableList(rules);
+    }
+
+    @DataBoundSetter
+    public void setRules(final List<RoutingRule> rules) {
+        this.rules = rules == null ? new ArrayList<>() : new ArrayList<>(rules);
+        this.table = new RoutingTable(this.rules);
+    }
+
+    @Nonnull
+    public List<EventTemplate> getTemplates() {
+        return templates == null ? Collections.<EventTemplate>emptyList() : Collections.unmodifiableList(templates);
+    }
+
+    @DataBoundSetter
+    public void setTemplates(final List<EventTemplate> templates) {
+        this.templates = templates == null ? new ArrayList<>() : new ArrayList<>(templates);
+        this.compiled = compile(this.templates);
+        this.digestSubjects = compileDigestSubjects(this.templates);
+    }
+
+    private static Map<EventType, MessageTemplate> compile(final List<EventTemplate> templates) {
+        Map<EventType, MessageTemplate> map = new EnumMap<>(EventType.class);
+        for (EventTemplate template : templates) {
+            EventType event = template.eventType();
+            if (event != null && StringUtils.isNotBlank(template.getTemplate()) && !map.containsKey(event)) {
+                map.put(event, MessageTemplate.compile(template.getTemplate()));
+            }
+        }
+        return map;
+    }
+
+    private static Map<EventType, MessageTemplate> compileDigestSubjects(final List<EventTemplate> templates) {
+        Map<EventType, MessageTemplate> map = new EnumMap<>(EventType.class);
+        for (EventTemplate template : templates) {
+            EventType event = template.eventType();
+            if (event != null && template.getDigestSubject() != null && !map.containsKey(event)) {
+                map.put(event, MessageTemplate.compile(template.getDigestSubject()));
+            }
+        }
+        return map;
+    }
+
+    @CheckForNull
+    private static MessageTemplate compile(final @CheckForNull String template) {
+        return StringUtils.isBlank(template) ? null : MessageTemplate.compile(template);
+    }
+
+    public String getDigestSubject() {
+        return digestSubject;
+    }
+
+    @DataBoundSetter
+    public void setDigestSubject(final String digestSubject) {
+        this.digestSubject = Util.fixEmptyAndTrim(digestSubject);
+        this.mixedDigestSubject = compile(this.digestSubject);
+    }
+
+    public String getDigestMore() {
+        return digestMore;
+    }
+
+    @DataBoundSetter
+    public void setDigestMore(final String digestMore) {
+        this.digestMore = Util.fixEmptyAndTrim(digestMore);
+        this.digestMoreTemplate = compile(this.digestMore);
+    }
+
+    /**
+     * 汇总消息的标题: 这类事件的模板里配置的, 几类事件混在一起时用全局配置的, 都没有配置时用内置的.
+     */
+    @Nonnull
+    String digestSubject(final @CheckForNull EventType event, final int count) {
+        final MessageTemplate template = event == null ? mixedDigestSubject : digestSubjects.get(event);
+        if (template != null) return template.text(count, event);
+        return event != null ? event.digestSubject(count) : count + " Jenkins events";
+    }
+
+    /**
+     * 汇总消息超出行数时的省略行.
+     */
+    @Nonnull
+    String digestMore(final int count) {
+        final MessageTemplate template = digestMoreTemplate;
+        return template != null ? template.text(count, null) : "... and " + count + " more";
+    }
+
+    public int getQueueLength() {
+        return queueLength;
+    }
+
+    @DataBoundSetter
+    public void setQueueLength(final int queueLength) {
+        this.queueLength = Math.max(0, queueLength);
+    }
+
+    public int getQueueWaitMinutes() {
+        return queueWaitMinutes;
+    }
+
+    @DataBoundSetter
+    public void setQueueWaitMinutes(final int queueWaitMinutes) {
+        this.queueWaitMinutes = Math.max(0, queueWaitMinutes);
+    }
+
+    public int getQueueSustainMinutes() {
+        return queueSustainMinutes;
+    }
+
+    @DataBoundSetter
+    public void setQueueSustainMinutes(final int queueSustainMinutes) {
+        this.queueSustainMinutes = Math.max(0, queueSustainMinutes);
+    }
+
+    public String getQueueWebhookurl() {
+        return queueWebhookurl;
+    }
+
+    @DataBoundSetter
+    public void setQueueWebhookurl(final String queueWebhookurl) {
+        this.queueWebhookurl = queueWebhookurl;
+        this.queueTarget = QueueTarget.parse(queueWebhookurl, queueMention, queuePost);
+    }
+
+    public String getQueueMention() {
+        return queueMention;
+    }
+
+    @DataBoundSetter
+    public void setQueueMention(final String queueMention) {
+        this.queueMention = queueMention;
+        this.queueTarget = QueueTarget.parse(queueWebhookurl, queueMention, queuePost);
+    }
+
+    public boolean isQueuePost() {
+        return queuePost;
+    }
+
+    @DataBoundSetter
+    public void setQueuePost(final boolean queuePost) {
+        this.queuePost = queuePost;
+        this.queueTarget = QueueTarget.parse(queueWebhookurl, queueMention, queuePost);
+    }
+
+    /**
+     * 构建队列告警发往哪里; 没有配置 webhook 或者没有任何阈值时返回 null, 不采样.
+     */
+    @CheckForNull
+    WatcherTarget getQueueTarget() {
+        return queueLength > 0 || queueWaitMinutes > 0 ? queueTarget : null;
+    }
+
+    public FormValidation doCheckQueueWebhookurl(@QueryParameter String value) {
+        // 不配置就不发构建队列告警
+        if (StringUtils.isEmpty(value)) {
+            return FormValidation.ok();
+        }
+        return Webhooks.check(value);
+    }
+
+    @Nonnull
+    RoutingTable getTable() {
+        return table;
+    }
+
+    /**
+     * 这类事件配置的模板, 没有配置 (或者是汇总消息) 时返回 null.
+     */
+    @CheckForNull
+    MessageTemplate template(final @CheckForNull EventType event) {
+        return event == null ? null : compiled.get(event);
+    }
+
+    private static final class QueueTarget implements WatcherTarget {
+        private final List<String> webhooks;
+        private final Recipients recipients;
+        private final boolean post;
+
+        private QueueTarget(final List<String> webhooks, final Recipients recipients, final boolean post) {
+            this.webhooks = webhooks;
+            this.recipients = recipients;
+            this.post = post;
+        }
+
+        @CheckForNull
+        static QueueTarget parse(final String webhookurl, final String mention, final boolean post) {
+            List<String> webhooks = Webhooks.parse(webhookurl);
+            return webhooks.isEmpty() ? null : new QueueTarget(webhooks, Recipients.parse(mention), post);
+        }
+
+        @Nonnull
+        @Override
+        public List<String> getWebhooks() {
+            return webhooks;
+        }
+
+        @Nonnull
+        @Override
+        public Recipients getRecipients() {
+            return recipients;
+        }
+
+        @Override
+        public boolean isPost() {
+            return post;
+        }
+    }
+
+    @Override
+    public boolean configure(final StaplerRequest req, final JSONObject json) throws FormException {
+        // 没有提交任何规则时 bindJSON 不会调用 setter
+        setRules(null);
+        setTemplates(null);
+        req.bindJSON(this, json);
+        save();
+        WatcherRegistry.rescanNodes();
+        WebhookSigner.invalidate();
+        return true;
+    }
+}
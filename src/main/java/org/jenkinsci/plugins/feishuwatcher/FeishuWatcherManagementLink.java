@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 管理页面: 展示插件发送通道的运行状态.
+ */
+@Extension
+public class FeishuWatcherManagementLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "clipboard.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "feishu-watcher";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Feishu Watcher";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Feishu webhook delivery status";
+    }
+
+    @Nonnull
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+
+    @CheckForNull
+    public FeishuDispatcher getDispatcher() {
+        return FeishuDispatcher.peek();
+    }
+
+    @CheckForNull
+    public FeishuHttpTransport getTransport() {
+        return FeishuHttpTransport.peek();
+    }
+
+    @Nonnull
+    public Collection<FeishuWatcherMetrics.Stats> getEventStats() {
+        return FeishuWatcherMetrics.getByEvent();
+    }
+
+    @Nonnull
+    public Collection<FeishuWatcherMetrics.Stats> getHostStats() {
+        return FeishuWatcherMetrics.getByHost();
+    }
+
+    @Nonnull
+    public List<DeliveryAudit.Record> getRecentDeliveries() {
+        return DeliveryAudit.recent();
+    }
+
+    @Nonnull
+    public Collection<WebhookCircuitBreaker> getCircuitBreakers() {
+        return WebhookCircuitBreaker.all().values();
+    }
+
+    @Nonnull
+    public Collection<WebhookRateLimiter> getRateLimiters() {
+        return WebhookRateLimiter.all().values();
+    }
+}
@@ -0,0 +1,241 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.init.Terminator;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 发送路径上的计数器和耗时分布, 按事件类型和 webhook 主机分别统计.
+ * <p>
+ * 只用 {@link LongAdder} 和固定分桶, 记录时不加锁.
+ * 在管理页面展示, 同时注册成 JMX MXBean (org.jenkinsci.plugins.feishuwatcher:type=DeliveryStats,...).
+ */
+public final class FeishuWatcherMetrics {
+    private static final Logger LOGGER = Logger.getLogger(FeishuWatcherMetrics.class.getName());
+
+    private static final String DOMAIN = "org.jenkinsci.plugins.feishuwatcher";
+    private static final String UNKNOWN = "UNKNOWN";
+
+    private static final Map<String, Stats> BY_EVENT = new ConcurrentHashMap<>();
+    private static final Map<String, Stats> BY_HOST = new ConcurrentHashMap<>();
+
+    private FeishuWatcherMetrics() {
+    }
+
+    static void enqueued(final @CheckForNull EventType event) {
+        byEvent(event).enqueued.increment();
+    }
+
+    static void attempted(final @CheckForNull EventType event, final @Nonnull String url, final int bytes, final boolean retry) {
+        attempted(byEvent(event), bytes, retry);
+        attempted(byHost(url), bytes, retry);
+    }
+
+    /**
+     * @param created 通知创建时 (监听器回调时) 的 {@link System#nanoTime()}
+     */
+    static void sent(final @CheckForNull EventType event, final @Nonnull String url, final long created) {
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - created);
+        sent(byEvent(event), latency);
+        sent(byHost(url), latency);
+    }
+
+    static void failed(final @CheckForNull EventType event, final @Nonnull String url) {
+        byEvent(event).failed.increment();
+        byHost(url).failed.increment();
+    }
+
+    private static void attempted(final Stats stats, final int bytes, final boolean retry) {
+        stats.payloadBytes.add(bytes);
+        if (retry) stats.retried.increment();
+    }
+
+    private static void sent(final Stats stats, final long latency) {
+        stats.sent.increment();
+        stats.latency.record(latency);
+    }
+
+    @Nonnull
+    public static Collection<Stats> getByEvent() {
+        return BY_EVENT.values();
+    }
+
+    @Nonnull
+    public static Collection<Stats> getByHost() {
+        return BY_HOST.values();
+    }
+
+    private static Stats byEvent(final EventType event) {
+        String name = event == null ? UNKNOWN : event.name();
+        return BY_EVENT.computeIfAbsent(name, n -> register(new Stats(n), "event"));
+    }
+
+    private static Stats byHost(final String url) {
+        // 不按 webhook 地址缓存主机名: 地址来自各处配置, 换掉的机器人会一直留在缓存里; 解析一次 URI 很便宜
+        String host = host(url);
+        return BY_HOST.computeIfAbsent(host, n -> register(new Stats(n), "host"));
+    }
+
+    private static String host(final String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host : UNKNOWN;
+        } catch (IllegalArgumentException e) {
+            return UNKNOWN;
+        }
+    }
+
+    private static Stats register(final Stats stats, final String scope) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=DeliveryStats,scope=" + scope + ",name=" + ObjectName.quote(stats.getName()));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(stats, name);
+            }
+            stats.objectName = name;
+        } catch (JMException | SecurityException e) {
+            LOGGER.log(Level.FINE, "unable to register JMX bean for " + stats.getName(), e);
+        }
+        return stats;
+    }
+
+    @Terminator
+    public static void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        List<Stats> all = new ArrayList<>(BY_EVENT.values());
+        all.addAll(BY_HOST.values());
+        for (Stats stats : all) {
+            if (stats.objectName == null) continue;
+            try {
+                server.unregisterMBean(stats.objectName);
+            } catch (JMException e) {
+                LOGGER.log(Level.FINE, "unable to unregister " + stats.objectName, e);
+            }
+        }
+    }
+
+    public static final class Stats implements DeliveryStatsMXBean {
+        private final String name;
+        private final LongAdder enqueued = new LongAdder();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder retried = new LongAdder();
+        private final LongAdder payloadBytes = new LongAdder();
+        private final Histogram latency = new Histogram();
+        private volatile ObjectName objectName;
+
+        Stats(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getEnqueued() {
+            return enqueued.sum();
+        }
+
+        @Override
+        public long getSent() {
+            return sent.sum();
+        }
+
+        @Override
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        @Override
+        public long getRetried() {
+            return retried.sum();
+        }
+
+        @Override
+        public long getPayloadBytes() {
+            return payloadBytes.sum();
+        }
+
+        @Override
+        public long getLatencyMeanMs() {
+            return latency.mean();
+        }
+
+        @Override
+        public long getLatencyP50Ms() {
+            return latency.percentile(0.50);
+        }
+
+        @Override
+        public long getLatencyP99Ms() {
+            return latency.percentile(0.99);
+        }
+
+        @Override
+        public long getLatencyMaxMs() {
+            return latency.max();
+        }
+    }
+
+    /**
+     * 固定分桶的耗时分布 (毫秒), 百分位取所在桶的上界.
+     */
+    static final class Histogram {
+        private static final long[] BOUNDS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 300000};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private volatile long max;
+
+        void record(final long value) {
+            int i = 0;
+            while (i < BOUNDS.length && value > BOUNDS[i]) i++;
+            buckets.incrementAndGet(i);
+            count.increment();
+            sum.add(value);
+            if (value > max) max = value; // 并发下可能偏小一点, 只用于展示
+        }
+
+        long mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : sum.sum() / n;
+        }
+
+        long max() {
+            return max;
+        }
+
+        long percentile(final double p) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long target = (long) Math.ceil(n * p);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return i < BOUNDS.length ? BOUNDS[i] : max;
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -2,13 +2,12 @@ package org.jenkinsci.plugins.feishuwatcher;
 
 import hudson.model.User;
 
-import javax.annotation.Nonnull;
 import javax.mail.MessagingException;
 import javax.mail.internet.AddressException;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 
@@ -19,14 +18,18 @@ public abstract class FeishuWatcherNotification {
     private static final String WATCHER_PLUGIN = "feishu-watcher-plugin: ";
 
     final private String subject;
-    final private String body;
-    final private String recipients;
+    private volatile String body;
+    // 在后台线程上第一次读取正文时才计算, 见 Builder#deferredBody
+    private volatile Supplier<String> deferredBody;
+    final private Recipients recipients;
 
     final private String url;
-    final private String webhookurl;
+    final private List<String> webhooks;
     final private String resourceName;
     final private User initiator;
     final private boolean post;
+    final private EventType event;
+    final private long created;
 
     final private String jenkinsRootUrl;
 
@@ -35,14 +38,17 @@ public abstract class FeishuWatcherNotification {
     public FeishuWatcherNotification(final Builder builder) {
         this.subject = builder.subject;
         this.body = builder.body;
+        this.deferredBody = builder.deferredBody;
         this.recipients = builder.recipients;
-        this.webhookurl = builder.webhookurl;
+        this.webhooks = builder.webhooks;
         this.url = builder.url;
         this.resourceName = builder.resourceName;
         this.initiator = builder.initiator;
         this.jenkinsRootUrl = builder.jenkinsRootUrl;
         this.feishu = builder.feishu;
         this.post = builder.post;
+        this.event = builder.event;
+        this.created = builder.created != 0 ? builder.created : System.nanoTime();
     }
 
     protected String getSubject() {
@@ -50,15 +56,23 @@ public abstract class FeishuWatcherNotification {
     }
 
     protected String getBody() {
+        if (deferredBody != null) {
+            synchronized (this) {
+                if (deferredBody != null) {
+                    body = StackTraces.trim(deferredBody.get());
+                    deferredBody = null;
+                }
+            }
+        }
         return body;
     }
 
-    public String getRecipients() {
+    public Recipients getRecipients() {
         return recipients;
     }
 
-    public String getWebhookurl() {
-        return webhookurl;
+    public List<String> getWebhooks() {
+        return webhooks;
     }
 
     public boolean isPost() {
@@ -81,6 +95,35 @@ public abstract class FeishuWatcherNotification {
         return initiator;
     }
 
+    public EventType getEvent() {
+        return event;
+    }
+
+    /**
+     * 监听器回调时的 {@link System#nanoTime()}, 用来统计端到端耗时.
+     */
+    long getCreated() {
+        return created;
+    }
+
+    String getJenkinsRootUrl() {
+        return jenkinsRootUrl;
+    }
+
+    /**
+     * 是否是 {@link EventCoalescer} 合并出来的汇总消息, 汇总消息的内容由多台机器/多个 job 决定.
+     */
+    boolean isDigest() {
+        return false;
+    }
+
+    /**
+     * 合并了几条通知, 单条消息是 1. 模板里的 ${count}.
+     */
+    int getCount() {
+        return 1;
+    }
+
     protected boolean shouldNotify() {
         return recipients != null;
     }
@@ -89,11 +132,27 @@ public abstract class FeishuWatcherNotification {
         return WATCHER_PLUGIN + this.getSubject();
     }
 
+    /**
+     * 交给 {@link EventCoalescer} 合并, 然后入队由 {@link FeishuDispatcher} 的后台线程去推送.
+     */
     public final void send() {
+        FeishuWatcherMetrics.enqueued(event);
+        EventCoalescer.get().offer(this);
+    }
+
+    /**
+     * 只入队, 由 {@link FeishuDispatcher} 的后台线程去推送.
+     */
+    final void dispatch() {
+        FeishuDispatcher.get().enqueue(this::deliver);
+    }
+
+    private void deliver() {
         try {
-            final String msg = feishu.send(this);
-            if (msg != null) {
-                LOGGER.info("notified: " + this.getSubject());
+            // 不在分发线程上等待推送结果, 结果出来之后再记录
+            final CompletableFuture<DeliveryResult> result = feishu.send(this);
+            if (result != null) {
+                result.thenAccept(r -> LOGGER.info("notified: " + this.getSubject() + " (" + r + ")"));
             }
         } catch (AddressException ex) {
             LOGGER.info("unable to parse address");
@@ -109,13 +168,16 @@ public abstract class FeishuWatcherNotification {
 
         private String subject = "";
         private String body = "";
-        private String recipients; //收件人
+        private Supplier<String> deferredBody;
+        private Recipients recipients; //收件人
 
         private String url = "";
-        private String webhookurl = "";
+        private List<String> webhooks = Collections.emptyList();
         private String resourceName = "";
         private User initiator;
         private boolean post;
+        private EventType event;
+        private long created;
 
         public Builder(final FeishuWatcher feishu, final String jenkinsRootUrl) {
             this.feishu = feishu;
@@ -128,12 +190,24 @@ public abstract class FeishuWatcherNotification {
             return this;
         }
 
+        /**
+         * 正文里的异常堆栈只保留最上面几帧和根因, 见 {@link StackTraces}.
+         */
         public Builder body(final String body) {
-            this.body = body;
+            this.body = StackTraces.trim(body);
+            this.deferredBody = null;
             return this;
         }
 
-        public Builder recipients(final String recipients) {
+        /**
+         * 正文要读磁盘之类的慢操作时用: 不在监听器线程上计算, 由 {@link FeishuDispatcher} 的后台线程在发送时计算一次.
+         */
+        public Builder deferredBody(final Supplier<String> body) {
+            this.deferredBody = body;
+            return this;
+        }
+
+        public Builder recipients(final Recipients recipients) {
             this.recipients = recipients;
             return this;
         }
@@ -143,14 +217,31 @@ public abstract class FeishuWatcherNotification {
             return this;
         }
 
-        protected Builder webhookurl(final String webhookurl) {
-            this.webhookurl = webhookurl;
+        protected Builder webhooks(final List<String> webhooks) {
+            this.webhooks = webhooks;
             return this;
         }
         protected Builder isPost(final boolean post) {
             this.post = post;
             return this;
         }
+        public Builder event(final EventType event) {
+            this.event = event;
+            return this;
+        }
+
+        protected EventType getEvent() {
+            return event;
+        }
+
+        /**
+         * 默认是通知对象创建的时间; 汇总消息用最早一条的时间.
+         */
+        protected Builder created(final long created) {
+            this.created = created;
+            return this;
+        }
+
         protected Builder name(final String name) {
             this.resourceName = name;
             return this;
@@ -0,0 +1,102 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.Util;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.Nonnull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通知的指纹: 资源 (job/节点的链接) 加上内容摘要.
+ * <p>
+ * 同一个 webhook 在 {@link #WINDOW_MS} 内收到同一资源相同指纹的消息只发第一条.
+ * 单个节点的事件只看状态 (离线/上线), 所以 onOffline 的两个重载, 临时下线之后紧接着断开连接, 都只会发一次;
+ * 状态真的变了 (离线 - 上线 - 离线) 指纹不同, 照常发送.
+ * 汇总消息的资源都是 "computer/", 要连同正文 (逐条列出的机器) 一起算, 否则不同机器的两批离线会被当成重复.
+ * 指纹随消息写入 {@link FeishuOutbox}, 重放时同样去重.
+ */
+final class Fingerprint {
+
+    private static final String PREFIX = Fingerprint.class.getName() + ".";
+
+    static final long WINDOW_MS = SystemProperties.getLong(PREFIX + "windowMs", TimeUnit.MINUTES.toMillis(1));
+    static final int MAX_ENTRIES = SystemProperties.getInteger(PREFIX + "maxEntries", 10000);
+
+    /**
+     * webhook + 资源 -> 最近一次发送的指纹, 按插入顺序淘汰.
+     */
+    private static final Map<String, Seen> SEEN = new LinkedHashMap<String, Seen>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Seen> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final String resource;
+    private final String hash;
+
+    Fingerprint(final @Nonnull String resource, final @Nonnull String hash) {
+        this.resource = resource;
+        this.hash = hash;
+    }
+
+    @Nonnull
+    static Fingerprint of(final @Nonnull FeishuWatcherNotification notification) {
+        final EventType event = notification.getEvent();
+        final String content;
+        if (event != null && event.isComputerOffline() && !notification.isDigest()) {
+            content = "offline";
+        } else if (event != null && event.isComputerOnline() && !notification.isDigest()) {
+            content = "online";
+        } else {
+            content = event + "\n" + notification.getSubject() + "\n" + notification.getBody();
+        }
+        return new Fingerprint(notification.getUrl(), Util.getDigestOf(content));
+    }
+
+    /**
+     * 记录这次发送; 窗口内已经给这个 webhook 发过相同指纹时返回 false.
+     */
+    boolean firstSeen(final @Nonnull String url) {
+        if (WINDOW_MS <= 0) return true;
+        final String key = url + "\n" + resource;
+        final long now = System.nanoTime();
+        synchronized (SEEN) {
+            Seen seen = SEEN.remove(key);
+            if (seen != null && seen.hash.equals(hash) && now - seen.at < TimeUnit.MILLISECONDS.toNanos(WINDOW_MS)) {
+                // 不刷新时间, 持续重复的消息每个窗口仍然发一次
+                SEEN.put(key, seen);
+                return false;
+            }
+            SEEN.put(key, new Seen(hash, now));
+            return true;
+        }
+    }
+
+    @Nonnull
+    String getResource() {
+        return resource;
+    }
+
+    @Nonnull
+    String getHash() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return resource + "#" + hash;
+    }
+
+    private static final class Seen {
+        final String hash;
+        final long at;
+
+        Seen(final String hash, final long at) {
+            this.hash = hash;
+            this.at = at;
+        }
+    }
+}
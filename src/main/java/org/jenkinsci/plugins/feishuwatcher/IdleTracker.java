@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.User;
+import hudson.slaves.OfflineCause;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 被用户手动临时下线, 并且配置了 {@link WatcherNodeProperty} 的机器, 以及它们上面还在忙的执行器.
+ * <p>
+ * 只有这些机器需要在空闲时通知. 忙的执行器由 {@link NodeAwailabilityListener} 按执行器开始/结束事件增减,
+ * 判断空闲只看集合是否为空; 其余机器上的任务开始/结束只做一次查找.
+ * 记的是执行器本身而不是个数, 同一个事件重复到达, 或者开始跟踪时已经算进去的执行器不会重复计数.
+ */
+final class IdleTracker {
+
+    /**
+     * computer 名字 -> 把它下线的用户和忙的执行器
+     */
+    private static final Map<String, Tracked> TRACKED = new ConcurrentHashMap<>();
+
+    private IdleTracker() {
+    }
+
+    static boolean isEmpty() {
+        return TRACKED.isEmpty();
+    }
+
+    /**
+     * 机器临时下线时调用, 只跟踪由用户下线, 并且当时还有任务在跑的. 只在这里看一遍机器的执行器.
+     */
+    static void offline(final Computer computer, final @CheckForNull OfflineCause cause) {
+        User user = initiator(computer, cause);
+        if (user == null) return;
+        Tracked tracked = new Tracked(user);
+        for (Executor e : computer.getExecutors()) {
+            if (!e.isIdle()) tracked.busy.add(e);
+        }
+        for (Executor e : computer.getOneOffExecutors()) {
+            if (!e.isIdle()) tracked.busy.add(e);
+        }
+        if (tracked.busy.isEmpty()) return;
+        TRACKED.put(computer.getName(), tracked);
+    }
+
+    /**
+     * 执行器接到任务. 已经下线的机器又开始跑任务 (比如一次性执行器上的 flyweight 任务) 时也开始跟踪,
+     * 这样它跑完时同样会通知, 不会在它还在跑时就认领.
+     */
+    static void busy(final Executor executor) {
+        final Computer computer = executor.getOwner();
+        Tracked tracked = TRACKED.get(computer.getName());
+        if (tracked == null) {
+            if (!computer.isTemporarilyOffline()) return;
+            final User user = initiator(computer, computer.getOfflineCause());
+            if (user == null) return;
+            tracked = TRACKED.computeIfAbsent(computer.getName(), k -> new Tracked(user));
+        }
+        tracked.busy.add(executor);
+    }
+
+    /**
+     * 执行器上的任务结束. 机器因此空闲时认领它: 只有从跟踪里移除成功的那个调用方去通知, 并发结束时也只通知一次.
+     *
+     * @return 认领成功时返回把机器下线的用户, 否则 null
+     */
+    @CheckForNull
+    static User idle(final Executor executor) {
+        final Computer computer = executor.getOwner();
+        final Tracked tracked = TRACKED.get(computer.getName());
+        if (tracked == null) return null;
+        tracked.busy.remove(executor);
+        // 开始跟踪和任务结束同时发生时可能漏掉结束事件, 顺便去掉已经空闲的
+        tracked.busy.removeIf(e -> e != executor && e.isIdle());
+        if (!tracked.busy.isEmpty()) return null;
+        if (!TRACKED.remove(computer.getName(), tracked)) return null;
+        // 期间被重新上线, 或者换成了别的下线原因
+        if (!computer.isTemporarilyOffline() || !(computer.getOfflineCause() instanceof OfflineCause.UserCause)) return null;
+        return tracked.user;
+    }
+
+    static void untrack(final Computer computer) {
+        TRACKED.remove(computer.getName());
+    }
+
+    @CheckForNull
+    private static User initiator(final Computer computer, final @CheckForNull OfflineCause cause) {
+        if (!(cause instanceof OfflineCause.UserCause)) return null;
+        User user = ((OfflineCause.UserCause) cause).getUser();
+        if (user == null || !WatcherRegistry.isWatchedNode(computer.getName())) return null;
+        return user;
+    }
+
+    /**
+     * 重启之后临时下线状态还在, 重新建立跟踪. 由 {@link WatcherRegistry#init()} 在扫描完节点之后调用.
+     */
+    static void init() {
+        for (Computer computer : Jenkins.get().getComputers()) {
+            if (computer.isTemporarilyOffline()) {
+                offline(computer, computer.getOfflineCause());
+            }
+        }
+    }
+
+    private static final class Tracked {
+        final User user;
+        final Set<Executor> busy = ConcurrentHashMap.newKeySet();
+
+        Tracked(final User user) {
+            this.user = user;
+        }
+    }
+}
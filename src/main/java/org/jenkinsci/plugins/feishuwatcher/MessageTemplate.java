@@ -0,0 +1,169 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 编译好的消息模板.
+ * <p>
+ * 模板里可以用 ${subject}, ${job}, ${computer}, ${cause}, ${body}, ${initiator}, ${url}, ${time}, ${event}, ${count},
+ * 不认识的占位符原样保留. ${count} 是汇总消息合并的通知条数, 单条消息是 1. 保存配置时解析一次成 "文本片段 + 占位符" 的列表, 发送时按顺序拼接即可;
+ * 富文本消息里 ${url} 输出成链接.
+ */
+final class MessageTemplate {
+
+    static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * 链接在富文本消息里显示的文字.
+     */
+    static final String LINK_TEXT = "请点这里";
+
+    enum Var {
+        SUBJECT, JOB, COMPUTER, CAUSE, BODY, INITIATOR, URL, TIME, EVENT, COUNT;
+
+        String value(final FeishuWatcherNotification n, final String time) {
+            switch (this) {
+                case SUBJECT:
+                    return n.getMailSubject();
+                case JOB:
+                    return n.getEvent() == null || !n.getEvent().isComputerEvent() ? n.getName() : "";
+                case COMPUTER:
+                    return n.getEvent() != null && n.getEvent().isComputerEvent() ? n.getName() : "";
+                case CAUSE:
+                    return n.getEvent() != null && n.getEvent().isComputerEvent() ? n.getBody() : "";
+                case BODY:
+                    return n.getBody();
+                case INITIATOR:
+                    return n.getInitiator() == null ? "" : n.getInitiator().getId();
+                case URL:
+                    return n.getArtefactUrl();
+                case TIME:
+                    return time;
+                case EVENT:
+                    return n.getEvent() == null ? "" : n.getEvent().name();
+                case COUNT:
+                    return String.valueOf(n.getCount());
+                default:
+                    throw new AssertionError(this);
+            }
+        }
+    }
+
+    /**
+     * 片段: literal 不为 null 时是文本, 否则是占位符.
+     */
+    private static final class Part {
+        final String literal;
+        final Var var;
+
+        Part(final String literal, final Var var) {
+            this.literal = literal;
+            this.var = var;
+        }
+    }
+
+    private final List<Part> parts;
+
+    private MessageTemplate(final List<Part> parts) {
+        this.parts = Collections.unmodifiableList(parts);
+    }
+
+    @Nonnull
+    static MessageTemplate compile(final @Nonnull String template) {
+        List<Part> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            int start = template.indexOf("${", i);
+            int end = start < 0 ? -1 : template.indexOf('}', start + 2);
+            if (end < 0) {
+                literal.append(template, i, template.length());
+                break;
+            }
+            literal.append(template, i, start);
+            Var var = var(template.substring(start + 2, end));
+            if (var == null) {
+                literal.append(template, start, end + 1);
+            } else {
+                if (literal.length() > 0) {
+                    parts.add(new Part(literal.toString(), null));
+                    literal.setLength(0);
+                }
+                parts.add(new Part(null, var));
+            }
+            i = end + 1;
+        }
+        if (literal.length() > 0) {
+            parts.add(new Part(literal.toString(), null));
+        }
+        return new MessageTemplate(parts);
+    }
+
+    private static Var var(final String name) {
+        for (Var var : Var.values()) {
+            if (var.name().equalsIgnoreCase(name.trim())) return var;
+        }
+        return null;
+    }
+
+    @Nonnull
+    String text(final @Nonnull FeishuWatcherNotification notification) {
+        final String time = LocalDateTime.now().format(TIME);
+        StringBuilder sb = new StringBuilder();
+        for (Part part : parts) {
+            sb.append(part.literal != null ? part.literal : part.var.value(notification, time));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 不对应某一条通知的文本, 比如汇总消息的标题: 只有 ${count}, ${event}, ${time} 有值, 其余占位符为空.
+     */
+    @Nonnull
+    String text(final int count, final @CheckForNull EventType event) {
+        final String time = LocalDateTime.now().format(TIME);
+        StringBuilder sb = new StringBuilder();
+        for (Part part : parts) {
+            if (part.literal != null) {
+                sb.append(part.literal);
+            } else if (part.var == Var.COUNT) {
+                sb.append(count);
+            } else if (part.var == Var.EVENT) {
+                sb.append(event == null ? "" : event.name());
+            } else if (part.var == Var.TIME) {
+                sb.append(time);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 富文本: 相邻的文本合并成一个 text 元素, ${url} 单独输出成链接.
+     * 文本元素整体可以被截断, 见 {@link FeishuPayloadEncoder}.
+     */
+    void post(final @Nonnull FeishuWatcherNotification notification, final @Nonnull FeishuPayloadEncoder.PostWriter w) throws IOException {
+        final String time = LocalDateTime.now().format(TIME);
+        StringBuilder sb = new StringBuilder();
+        for (Part part : parts) {
+            if (part.var == Var.URL) {
+                if (sb.length() > 0) {
+                    w.text("", sb.toString(), "");
+                    sb.setLength(0);
+                }
+                w.link(LINK_TEXT, notification.getArtefactUrl());
+            } else {
+                sb.append(part.literal != null ? part.literal : part.var.value(notification, time));
+            }
+        }
+        if (sb.length() > 0) {
+            w.text("", sb.toString(), "");
+        }
+    }
+}
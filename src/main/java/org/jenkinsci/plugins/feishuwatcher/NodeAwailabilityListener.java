@@ -3,24 +3,17 @@ package org.jenkinsci.plugins.feishuwatcher;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.model.*;
-import hudson.model.listeners.RunListener;
-import hudson.slaves.OfflineCause;
 import jenkins.model.Jenkins;
 
-import javax.annotation.CheckForNull;
-import java.util.Arrays;
-import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
+/**
+ * 用户把机器临时下线后, 机器上的任务都结束了就通知一次.
+ * <p>
+ * 按执行器的接到任务/任务结束事件维护 {@link IdleTracker} 里每台机器忙的执行器, 不看构建的类型:
+ * Freestyle 构建和 Pipeline 的 node 块 (以及一次性执行器上的 flyweight 任务) 都是执行器上的任务.
+ * 没有被跟踪的机器时, 每个事件只花一次查找.
+ */
 @Extension
-public class NodeAwailabilityListener extends RunListener<Run<?, ?>> {
-
-    private static final Logger LOGGER = Logger.getLogger(NodeAwailabilityListener.class.getName());
-
-    private static final List<String> IGNORED_CLASSES = Arrays.asList(
-            "org.jenkinsci.plugins.workflow.job.WorkflowRun"
-    );
+public class NodeAwailabilityListener implements ExecutorListener {
 
     private final FeishuWatcher feishu;
     private final String jenkinsRootUrl;
@@ -39,67 +32,28 @@ public class NodeAwailabilityListener extends RunListener<Run<?, ?>> {
         this.jenkinsRootUrl = jenkinsRootUrl;
     }
 
-    private boolean isIgnoredRunClass(Run<?, ?> r) {
-        String runClassName = r.getClass().getCanonicalName();
-        return IGNORED_CLASSES.contains(runClassName);
-    }
-
     @Override
-    public void onFinalized(Run<?, ?> r) {
-        if (isIgnoredRunClass(r)) {
-            return;
-        }
-
-        Computer computer = computer(r);
-        if (computer == null) {
-            String msg = String.format("Unable to identify the slave of %s (%s)", r, r.getClass());
-            LOGGER.log(Level.INFO, msg, new Exception());
-            return;
-        }
-
-        if (!computer.isTemporarilyOffline()) return;
-
-        User user = user(computer);
-        if (user == null) return;
-
-        if (!isIdle(computer)) return;
-
-        final String subject = "Jenkins computer '" + computer.getDisplayName() + "' you have put offline is no longer occupied";
-        getNotification().subject(subject).url(computer.getUrl()).initiator(user).send(r);
+    public void taskAccepted(final Executor executor, final Queue.Task task) {
+        IdleTracker.busy(executor);
     }
 
-    private @CheckForNull
-    User user(Computer computer) {
-        OfflineCause cause = computer.getOfflineCause();
-        if (cause instanceof OfflineCause.UserCause) {
-            return ((OfflineCause.UserCause) cause).getUser();
-        }
-
-        return null;
+    @Override
+    public void taskCompleted(final Executor executor, final Queue.Task task, final long durationMS) {
+        done(executor);
     }
 
-    private @CheckForNull
-    Computer computer(Run<?, ?> r) {
-        if (r instanceof AbstractBuild) {
-            Node node = ((AbstractBuild<?, ?>) r).getBuiltOn();
-            if (node != null) {
-                return node.toComputer();
-            }
-        }
-        return null;
+    @Override
+    public void taskCompletedWithProblems(final Executor executor, final Queue.Task task, final long durationMS, final Throwable problems) {
+        done(executor);
     }
 
-    private boolean isIdle(Computer computer) {
-        Thread current = Thread.currentThread();
-        for (Executor e : computer.getExecutors()) {
-            if (!e.isIdle() && e != current) return false;
-        }
-
-        for (Executor e : computer.getOneOffExecutors()) {
-            if (!e.isIdle() && e != current) return false;
-        }
-
-        return true;
+    private void done(final Executor executor) {
+        if (IdleTracker.isEmpty()) return;
+        final User user = IdleTracker.idle(executor);
+        if (user == null) return;
+        final Computer computer = executor.getOwner();
+        final String subject = "Jenkins computer '" + computer.getDisplayName() + "' you have put offline is no longer occupied";
+        getNotification().event(EventType.NODE_FREE).subject(subject).initiator(user).send(computer);
     }
 
     private Notification.Builder getNotification() {
@@ -120,6 +74,24 @@ public class NodeAwailabilityListener extends RunListener<Run<?, ?>> {
 
             @Override
             public void send(final Object o) {
+                final Computer computer = (Computer) o;
+                final Node node = computer.getNode();
+                if (node == null) return;
+                final WatcherNodeProperty property = node.getNodeProperties().get(WatcherNodeProperty.class);
+                if (property != null) {
+                    this.recipients(property.getRecipients());
+                    this.webhooks(property.getWebhooks());
+                    this.isPost(property.isPost());
+                } else {
+                    final RoutingTable.Route route = FeishuWatcherGlobalConfiguration.get().getTable().route(getEvent(), node);
+                    if (route == null) return;
+                    this.recipients(route.getRecipients());
+                    this.webhooks(route.getWebhooks());
+                    this.isPost(route.isPost());
+                }
+                this.url(computer.getUrl());
+                this.name(computer.getDisplayName());
+
                 new Notification(this).send();
             }
         }
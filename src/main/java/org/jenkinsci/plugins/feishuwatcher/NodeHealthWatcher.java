@@ -0,0 +1,224 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.node_monitors.ClockMonitor;
+import hudson.node_monitors.DiskSpaceMonitor;
+import hudson.node_monitors.DiskSpaceMonitorDescriptor;
+import hudson.node_monitors.SwapSpaceMonitor;
+import hudson.node_monitors.TemporarySpaceMonitor;
+import hudson.util.ClockDifference;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.jvnet.hudson.MemoryUsage;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * 节点资源告警: 磁盘, 临时目录, 交换空间, 时钟偏差.
+ * <p>
+ * 只读 Jenkins 节点监控已经缓存的结果 ({@link Computer#getMonitorData()}), 不发起远程调用;
+ * 只检查被关注并且在 {@link WatcherNodeProperty} 上配置了阈值的节点.
+ * 超过阈值时通知一次, 回到阈值 {@link #HYSTERESIS_PERCENT}% 以外才算恢复 (再通知一次), 避免在阈值附近反复通知.
+ */
+@Extension
+public class NodeHealthWatcher extends AsyncPeriodicWork {
+
+    private static final String PREFIX = NodeHealthWatcher.class.getName() + ".";
+
+    static final long PERIOD_SECONDS = SystemProperties.getLong(PREFIX + "periodSeconds", 60L);
+    static final int HYSTERESIS_PERCENT = SystemProperties.getInteger(PREFIX + "hysteresisPercent", 10);
+
+    private static final double GB = 1024.0 * 1024 * 1024;
+    private static final double MB = 1024.0 * 1024;
+
+    enum Metric {
+        DISK("free disk space", "GB", true),
+        TMP("free temp space", "GB", true),
+        SWAP("free swap", "MB", true),
+        CLOCK("clock drift", "s", false);
+
+        final String description;
+        final String unit;
+        /**
+         * true: 低于阈值告警; false: 高于阈值告警
+         */
+        final boolean lowIsBad;
+
+        Metric(final String description, final String unit, final boolean lowIsBad) {
+            this.description = description;
+            this.unit = unit;
+            this.lowIsBad = lowIsBad;
+        }
+    }
+
+    /**
+     * 节点名 -> 已经告警过的指标. 只在采样线程里访问.
+     */
+    private final Map<String, Set<Metric>> breached = new HashMap<>();
+
+    public NodeHealthWatcher() {
+        super("Feishu node health watcher");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.SECONDS.toMillis(PERIOD_SECONDS);
+    }
+
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINE;
+    }
+
+    /**
+     * 每次在新线程里执行, 加锁保证状态在前后两次采样之间可见.
+     */
+    @Override
+    protected synchronized void execute(final TaskListener listener) {
+        final Jenkins jenkins = Jenkins.get();
+        final Set<String> seen = new HashSet<>();
+        for (Computer computer : jenkins.getComputers()) {
+            if (!WatcherRegistry.isWatchedNode(computer.getName())) continue;
+            final Node node = computer.getNode();
+            final WatcherNodeProperty property = node == null ? null : node.getNodeProperties().get(WatcherNodeProperty.class);
+            if (property == null || !property.hasHealthThresholds() || computer.isOffline()) continue;
+            seen.add(computer.getName());
+            check(jenkins, computer, property);
+        }
+        breached.keySet().retainAll(seen);
+    }
+
+    private void check(final Jenkins jenkins, final Computer computer, final WatcherNodeProperty property) {
+        final Map<String, Object> data = computer.getMonitorData();
+        final Set<Metric> current = EnumSet.noneOf(Metric.class);
+        current.addAll(breached.getOrDefault(computer.getName(), current));
+        final List<String> fired = new ArrayList<>();
+        final List<String> recovered = new ArrayList<>();
+
+        evaluate(Metric.DISK, freeSpace(data.get(DiskSpaceMonitor.class.getName())), property.getMinDiskSpaceGb(), current, fired, recovered);
+        evaluate(Metric.TMP, freeSpace(data.get(TemporarySpaceMonitor.class.getName())), property.getMinTmpSpaceGb(), current, fired, recovered);
+        evaluate(Metric.SWAP, swap(data.get(SwapSpaceMonitor.class.getName())), property.getMinSwapMb(), current, fired, recovered);
+        evaluate(Metric.CLOCK, clock(data.get(ClockMonitor.class.getName())), property.getMaxClockDriftSeconds(), current, fired, recovered);
+
+        if (current.isEmpty()) {
+            breached.remove(computer.getName());
+        } else {
+            breached.put(computer.getName(), current);
+        }
+
+        if (!fired.isEmpty()) {
+            notify(jenkins, computer, property, EventType.COMPUTER_UNHEALTHY, "is running low: " + String.join(", ", fired));
+        }
+        if (!recovered.isEmpty()) {
+            notify(jenkins, computer, property, EventType.COMPUTER_HEALTHY, "has recovered: " + String.join(", ", recovered));
+        }
+    }
+
+    /**
+     * 更新一个指标的状态; 越过阈值记入 fired, 回到阈值加上回差以外记入 recovered.
+     */
+    private static void evaluate(final Metric metric, final @CheckForNull Double value, final double threshold,
+                                 final Set<Metric> breached, final List<String> fired, final List<String> recovered) {
+        if (threshold <= 0) {
+            // 阈值被去掉
+            breached.remove(metric);
+            return;
+        }
+        // 监控被关掉, 或者还没采集到: 保持原状
+        if (value == null) return;
+        final double margin = threshold * HYSTERESIS_PERCENT / 100.0;
+        final String text = String.format("%s %.1f %s (threshold %s %s)", metric.description, value,
+                metric.unit, trim(threshold), metric.unit);
+        if (!breached.contains(metric)) {
+            boolean bad = metric.lowIsBad ? value < threshold : value > threshold;
+            if (bad) {
+                breached.add(metric);
+                fired.add(text);
+            }
+        } else {
+            boolean good = metric.lowIsBad ? value >= threshold + margin : value <= threshold - margin;
+            if (good) {
+                breached.remove(metric);
+                recovered.add(text);
+            }
+        }
+    }
+
+    private static String trim(final double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    @CheckForNull
+    private static Double freeSpace(final Object data) {
+        if (!(data instanceof DiskSpaceMonitorDescriptor.DiskSpace)) return null;
+        return ((DiskSpaceMonitorDescriptor.DiskSpace) data).getFreeSize() / GB;
+    }
+
+    @CheckForNull
+    private static Double swap(final Object data) {
+        if (!(data instanceof MemoryUsage)) return null;
+        long available = ((MemoryUsage) data).availableSwapSpace;
+        return available < 0 ? null : available / MB;
+    }
+
+    @CheckForNull
+    private static Double clock(final Object data) {
+        if (!(data instanceof ClockDifference)) return null;
+        return ((ClockDifference) data).abs() / 1000.0;
+    }
+
+    private static void notify(final Jenkins jenkins, final Computer computer, final WatcherNodeProperty property,
+                               final EventType event, final String subject) {
+        new Notification.Builder(new FeishuWatcher(jenkins), jenkins.getRootUrl(), property)
+                .event(event).subject(subject).send(computer);
+    }
+
+    private static class Notification extends FeishuWatcherNotification {
+
+        public Notification(final Builder builder) {
+            super(builder);
+        }
+
+        @Override
+        protected String getSubject() {
+            return String.format("Computer %s %s", getName(), super.getSubject());
+        }
+
+        private static class Builder extends FeishuWatcherNotification.Builder {
+
+            private final WatcherNodeProperty property;
+
+            public Builder(final FeishuWatcher feishu, final String jenkinsRootUrl, final WatcherNodeProperty property) {
+                super(feishu, jenkinsRootUrl);
+                this.property = property;
+            }
+
+            @Override
+            public void send(final Object o) {
+                final Computer computer = (Computer) o;
+                if (getEvent() == EventType.COMPUTER_UNHEALTHY) {
+                    this.recipients(property.getRecipients());
+                }
+                this.webhooks(property.getWebhooks());
+                this.isPost(property.isPost());
+                this.url(computer.getUrl());
+                this.name(computer.getDisplayName());
+
+                new Notification(this).send();
+            }
+        }
+    }
+}
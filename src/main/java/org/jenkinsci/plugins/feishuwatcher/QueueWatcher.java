@@ -0,0 +1,227 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 构建队列积压告警.
+ * <p>
+ * 每 {@link #PERIOD_SECONDS} 秒用 {@link Queue#getApproximateItemsQuickly()} 取一次队列快照 (不加队列锁),
+ * 一遍扫描按标签统计可执行任务的数量和最长等待时间. 每个标签保留最近几次采样的滚动窗口,
+ * 窗口内每次采样都超过 {@link FeishuWatcherGlobalConfiguration} 里的阈值才告警, 之后连续一个窗口都低于阈值才重新告警.
+ * 执行器占用只对要告警的标签计算.
+ */
+@Extension
+public class QueueWatcher extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(QueueWatcher.class.getName());
+
+    static final long PERIOD_SECONDS = SystemProperties.getLong(QueueWatcher.class.getName() + ".periodSeconds", 60L);
+
+    /**
+     * 标签表达式 -> 窗口, 没有标签的任务是 "". 只在采样线程里访问.
+     */
+    private final Map<String, Window> windows = new HashMap<>();
+
+    public QueueWatcher() {
+        super("Feishu queue watcher");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.SECONDS.toMillis(PERIOD_SECONDS);
+    }
+
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINE;
+    }
+
+    /**
+     * 每次在新线程里执行, 加锁保证窗口在前后两次采样之间可见.
+     */
+    @Override
+    protected synchronized void execute(final TaskListener listener) {
+        final FeishuWatcherGlobalConfiguration config = FeishuWatcherGlobalConfiguration.get();
+        final WatcherTarget target = config.getQueueTarget();
+        if (target == null) {
+            windows.clear();
+            return;
+        }
+        final int size = Math.max(1, (int) Math.ceil(TimeUnit.MINUTES.toSeconds(config.getQueueSustainMinutes()) / (double) PERIOD_SECONDS));
+        final long waitThresholdMs = TimeUnit.MINUTES.toMillis(config.getQueueWaitMinutes());
+
+        final Jenkins jenkins = Jenkins.get();
+        final long now = System.currentTimeMillis();
+        final Map<String, Sample> samples = new HashMap<>();
+        for (Queue.Item item : jenkins.getQueue().getApproximateItemsQuickly()) {
+            // 还在静默期或者被阻塞的不算缺执行器
+            if (!item.isBuildable()) continue;
+            final Label label = item.getAssignedLabel();
+            final String key = label == null ? "" : label.getExpression();
+            Sample sample = samples.get(key);
+            if (sample == null) {
+                sample = new Sample(label);
+                samples.put(key, sample);
+            }
+            sample.length++;
+            sample.maxWaitMs = Math.max(sample.maxWaitMs, now - item.getInQueueSince());
+        }
+
+        // 这次没有出现的标签记一次空采样, 窗口全空之后丢掉
+        for (Iterator<Map.Entry<String, Window>> it = windows.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Window> e = it.next();
+            if (samples.containsKey(e.getKey())) continue;
+            if (e.getValue().push(0, 0, false, size)) {
+                it.remove();
+            }
+        }
+        for (Map.Entry<String, Sample> e : samples.entrySet()) {
+            final Sample sample = e.getValue();
+            final boolean over = config.getQueueLength() > 0 && sample.length >= config.getQueueLength()
+                    || waitThresholdMs > 0 && sample.maxWaitMs >= waitThresholdMs;
+            Window window = windows.get(e.getKey());
+            if (window == null) {
+                window = new Window();
+                windows.put(e.getKey(), window);
+            }
+            window.push(sample.length, sample.maxWaitMs, over, size);
+            if (window.shouldAlert(size)) {
+                window.alerted = true;
+                alert(target, e.getKey(), sample, window);
+            }
+        }
+    }
+
+    private void alert(final WatcherTarget target, final String key, final Sample sample, final Window window) {
+        final Jenkins jenkins = Jenkins.get();
+        final int total;
+        final int busy;
+        if (sample.label != null) {
+            total = sample.label.getTotalExecutors();
+            busy = sample.label.getBusyExecutors();
+        } else {
+            total = jenkins.overallLoad.computeTotalExecutors();
+            busy = total - jenkins.overallLoad.computeIdleExecutors();
+        }
+        final String name = key.isEmpty() ? "(any)" : key;
+        final String subject = String.format("Build queue for label '%s' has %d items, longest waiting %d min",
+                name, sample.length, TimeUnit.MILLISECONDS.toMinutes(sample.maxWaitMs));
+        final String body = String.format("最近 %d 次采样平均排队 %d 个, 平均最长等待 %d 分钟; 执行器占用 %d/%d",
+                window.count, window.averageLength(), TimeUnit.MILLISECONDS.toMinutes(window.averageWaitMs()), busy, total);
+        LOGGER.info(subject);
+        new Notification.Builder(new FeishuWatcher(jenkins), jenkins.getRootUrl(), target)
+                .event(EventType.QUEUE_STARVATION).subject(subject).body(body)
+                .send(sample.label);
+    }
+
+    private static final class Sample {
+        final Label label;
+        int length;
+        long maxWaitMs;
+
+        Sample(final Label label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * 最近几次采样的环形窗口.
+     */
+    private static final class Window {
+        private int[] lengths = new int[0];
+        private long[] waits = new long[0];
+        private boolean[] overs = new boolean[0];
+        private int next;
+        int count;
+        boolean alerted;
+
+        /**
+         * @return 窗口里是否全是空采样
+         */
+        boolean push(final int length, final long waitMs, final boolean over, final int size) {
+            if (lengths.length != size) {
+                lengths = new int[size];
+                waits = new long[size];
+                overs = new boolean[size];
+                next = 0;
+                count = 0;
+            }
+            lengths[next] = length;
+            waits[next] = waitMs;
+            overs[next] = over;
+            next = (next + 1) % size;
+            count = Math.min(size, count + 1);
+
+            boolean anyOver = false;
+            boolean empty = true;
+            for (int i = 0; i < count; i++) {
+                anyOver |= overs[i];
+                empty &= lengths[i] == 0;
+            }
+            // 一整个窗口都低于阈值, 重新告警
+            if (!anyOver && count == size) alerted = false;
+            return empty && !alerted;
+        }
+
+        boolean shouldAlert(final int size) {
+            if (alerted || count < size) return false;
+            for (boolean over : overs) {
+                if (!over) return false;
+            }
+            return true;
+        }
+
+        int averageLength() {
+            long sum = 0;
+            for (int i = 0; i < count; i++) sum += lengths[i];
+            return count == 0 ? 0 : (int) (sum / count);
+        }
+
+        long averageWaitMs() {
+            long sum = 0;
+            for (int i = 0; i < count; i++) sum += waits[i];
+            return count == 0 ? 0 : sum / count;
+        }
+    }
+
+    private static class Notification extends FeishuWatcherNotification {
+
+        public Notification(final Builder builder) {
+            super(builder);
+        }
+
+        private static class Builder extends FeishuWatcherNotification.Builder {
+
+            private final WatcherTarget target;
+
+            public Builder(final FeishuWatcher feishu, final String jenkinsRootUrl, final WatcherTarget target) {
+                super(feishu, jenkinsRootUrl);
+                this.target = target;
+            }
+
+            @Override
+            public void send(final Object o) {
+                final Label label = (Label) o;
+                this.recipients(target.getRecipients());
+                this.webhooks(target.getWebhooks());
+                this.isPost(target.isPost());
+                this.url(label == null ? "" : label.getUrl());
+                this.name(label == null ? "(any)" : label.getExpression());
+
+                new Notification(this).send();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 解析好的 @ 人列表. 只在属性保存/加载时解析一次, 发送时直接读.
+ * <p>
+ * 以 ou 开头的是 open_id, 带 all 的是 @所有人, 其余的当作手机号.
+ */
+public final class Recipients {
+
+    public static final Recipients EMPTY = new Recipients(ImmutableList.of(), ImmutableList.of(), 0);
+
+    private static final Splitter SPLITTER = Splitter.on(',').omitEmptyStrings().trimResults();
+
+    private final List<String> mentioned; // # 用户 open_id  列表
+    private final List<String> mobiles; // # 用户 mobile 列表
+    private final int omitted; // # 人太多时没有 @ 到的人数
+    private final String textMentions;
+
+    private Recipients(final List<String> mentioned, final List<String> mobiles, final int omitted) {
+        this.mentioned = mentioned;
+        this.mobiles = mobiles;
+        this.omitted = omitted;
+        StringBuilder text = new StringBuilder();
+        for (String m : mentioned) {
+            if (m.equals("@all")) {
+                text.append("<at user_id=\"all\">所有人</at>\n");
+            } else {
+                text.append("<at user_id=\"").append(m).append("\">").append(m).append("</at>\n");
+            }
+        }
+        if (omitted > 0) {
+            text.append(omittedText()).append('\n');
+        }
+        this.textMentions = text.toString();
+    }
+
+    @Nonnull
+    public static Recipients parse(final @CheckForNull String mention) {
+        if (StringUtils.isEmpty(mention)) return EMPTY;
+        ImmutableList.Builder<String> mentioned = ImmutableList.builder();
+        ImmutableList.Builder<String> mobiles = ImmutableList.builder();
+        for (String result : SPLITTER.split(mention)) {
+            if (result.startsWith("ou") || result.contains("all")) {
+                mentioned.add(result);
+            } else {
+                mobiles.add(result);
+            }
+        }
+        return new Recipients(mentioned.build(), mobiles.build(), 0);
+    }
+
+    /**
+     * 合并多组收件人, 去重并保持顺序.
+     */
+    @Nonnull
+    public static Recipients merge(final @Nonnull Iterable<Recipients> all) {
+        Set<String> mentioned = new LinkedHashSet<>();
+        Set<String> mobiles = new LinkedHashSet<>();
+        for (Recipients r : all) {
+            mentioned.addAll(r.mentioned);
+            mobiles.addAll(r.mobiles);
+        }
+        if (mentioned.isEmpty() && mobiles.isEmpty()) return EMPTY;
+        return new Recipients(ImmutableList.copyOf(mentioned), ImmutableList.copyOf(mobiles), 0);
+    }
+
+    /**
+     * 最多 @ max 个人, 其余的只写一个人数; 有 @所有人 时只留它, 其他人本来就会收到.
+     */
+    @Nonnull
+    public Recipients limit(final int max) {
+        if (max <= 0 || mentioned.size() + mobiles.size() <= max) return this;
+        if (mentioned.contains("@all")) {
+            return new Recipients(ImmutableList.of("@all"), ImmutableList.of(), 0);
+        }
+        List<String> keptMentioned = mentioned.subList(0, Math.min(max, mentioned.size()));
+        List<String> keptMobiles = mobiles.subList(0, max - keptMentioned.size());
+        return new Recipients(ImmutableList.copyOf(keptMentioned), ImmutableList.copyOf(keptMobiles),
+                omitted + mentioned.size() + mobiles.size() - max);
+    }
+
+    public int getOmitted() {
+        return omitted;
+    }
+
+    /**
+     * 没有 @ 到的人数的说明, 比如 "等另外 12 人".
+     */
+    @Nonnull
+    public String omittedText() {
+        return "等另外 " + omitted + " 人";
+    }
+
+    @Nonnull
+    public List<String> getMentioned() {
+        return mentioned;
+    }
+
+    @Nonnull
+    public List<String> getMobiles() {
+        return mobiles;
+    }
+
+    /**
+     * 文本消息里的 at 标签, 每人一行.
+     */
+    @Nonnull
+    public String getTextMentions() {
+        return textMentions;
+    }
+
+    public boolean isEmpty() {
+        return mentioned.isEmpty() && mobiles.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", mentioned) + (mobiles.isEmpty() ? "" : "," + String.join(",", mobiles));
+    }
+}
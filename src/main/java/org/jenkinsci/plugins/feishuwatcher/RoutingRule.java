@@ -0,0 +1,175 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import antlr.ANTLRException;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.util.FormValidation;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 全局路由规则: 按 folder 路径前缀, job 名正则, 节点标签表达式和事件类型, 把事件发到指定的 webhook.
+ * <p>
+ * 条件都是可选的; folder 和 job 正则只匹配 job 事件, 标签表达式只匹配节点事件.
+ * 规则按顺序匹配, 第一条命中的生效. 规则本身只保存配置, 匹配用的是编译好的 {@link RoutingTable}.
+ */
+public class RoutingRule extends AbstractDescribableImpl<RoutingRule> {
+
+    private final String webhookurl;
+    private String mention;
+    private boolean post;
+
+    private String folder;
+    private String jobPattern;
+    private String labelExpression;
+    private String events;
+
+    @DataBoundConstructor
+    public RoutingRule(final String webhookurl) {
+        this.webhookurl = webhookurl;
+    }
+
+    public String getWebhookurl() {
+        return webhookurl;
+    }
+
+    public String getMention() {
+        return mention;
+    }
+
+    @DataBoundSetter
+    public void setMention(final String mention) {
+        this.mention = Util.fixEmptyAndTrim(mention);
+    }
+
+    public boolean isPost() {
+        return post;
+    }
+
+    @DataBoundSetter
+    public void setPost(final boolean post) {
+        this.post = post;
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    @DataBoundSetter
+    public void setFolder(final String folder) {
+        this.folder = Util.fixEmptyAndTrim(folder);
+    }
+
+    public String getJobPattern() {
+        return jobPattern;
+    }
+
+    @DataBoundSetter
+    public void setJobPattern(final String jobPattern) {
+        this.jobPattern = Util.fixEmptyAndTrim(jobPattern);
+    }
+
+    public String getLabelExpression() {
+        return labelExpression;
+    }
+
+    @DataBoundSetter
+    public void setLabelExpression(final String labelExpression) {
+        this.labelExpression = Util.fixEmptyAndTrim(labelExpression);
+    }
+
+    /**
+     * 逗号分隔的 {@link EventType} 名字, 空表示所有事件.
+     */
+    public String getEvents() {
+        return events;
+    }
+
+    @DataBoundSetter
+    public void setEvents(final String events) {
+        this.events = Util.fixEmptyAndTrim(events);
+    }
+
+    /**
+     * folder 路径按 '/' 拆分, 去掉首尾的 '/'.
+     */
+    @Nonnull
+    String[] folderSegments() {
+        if (folder == null) return new String[0];
+        String trimmed = StringUtils.strip(folder, "/");
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("/+");
+    }
+
+    @Nonnull
+    Set<EventType> eventTypes() {
+        if (events == null) return EnumSet.allOf(EventType.class);
+        Set<EventType> types = EnumSet.noneOf(EventType.class);
+        for (String name : events.split("[,\\s]+")) {
+            if (name.isEmpty()) continue;
+            try {
+                types.add(EventType.valueOf(name.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                // 配置校验时已经提示过
+            }
+        }
+        return types;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<RoutingRule> {
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "Routing rule";
+        }
+
+        public FormValidation doCheckWebhookurl(@QueryParameter String value) {
+            return Webhooks.check(value);
+        }
+
+        public FormValidation doCheckJobPattern(@QueryParameter String value) {
+            if (StringUtils.isBlank(value)) return FormValidation.ok();
+            try {
+                Pattern.compile(value.trim());
+                return FormValidation.ok();
+            } catch (PatternSyntaxException e) {
+                return FormValidation.error(e.getDescription());
+            }
+        }
+
+        public FormValidation doCheckLabelExpression(@QueryParameter String value) {
+            if (StringUtils.isBlank(value)) return FormValidation.ok();
+            try {
+                Label.parseExpression(value.trim());
+                return FormValidation.ok();
+            } catch (ANTLRException e) {
+                return FormValidation.error(e.getMessage());
+            }
+        }
+
+        public FormValidation doCheckEvents(@QueryParameter String value) {
+            if (StringUtils.isBlank(value)) return FormValidation.ok();
+            for (String name : value.split("[,\\s]+")) {
+                if (name.isEmpty()) continue;
+                try {
+                    EventType.valueOf(name.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    return FormValidation.error("unknown event " + name + ", expected one of " + StringUtils.join(EventType.values(), ", "));
+                }
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import antlr.ANTLRException;
+import hudson.model.Label;
+import hudson.model.Node;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * 编译好的 {@link RoutingRule} 列表, 不可变, 保存配置时整体替换.
+ * <p>
+ * job 规则按 folder 前缀挂在一棵按路径段划分的前缀树上, 查找时只沿着 job 所在的 folder 路径走一遍,
+ * 只看路径上挂着的规则, 和规则总数无关. 正则, 标签表达式, 事件集合都在编译时准备好.
+ */
+final class RoutingTable {
+    private static final Logger LOGGER = Logger.getLogger(RoutingTable.class.getName());
+
+    static final RoutingTable EMPTY = new RoutingTable(Collections.<RoutingRule>emptyList());
+
+    private final Segment root = new Segment();
+    private final List<Route> nodeRoutes = new ArrayList<>();
+    private final boolean empty;
+
+    RoutingTable(final @Nonnull List<RoutingRule> rules) {
+        for (int i = 0; i < rules.size(); i++) {
+            final RoutingRule rule = rules.get(i);
+            final Route route;
+            try {
+                route = new Route(i, rule);
+            } catch (RuntimeException | ANTLRException e) {
+                LOGGER.log(Level.WARNING, "ignoring invalid feishu routing rule #" + (i + 1), e);
+                continue;
+            }
+            // 只配了节点事件的规则不挂到 job 的树上, 否则 WatcherRegistry 会把所有 job 都当成被关注
+            if (route.matchesJobs) {
+                Segment segment = root;
+                for (String name : rule.folderSegments()) {
+                    segment = segment.children.computeIfAbsent(name, k -> new Segment());
+                }
+                // 规则按顺序加入, 每个节点上的列表天然有序
+                segment.routes.add(route);
+            }
+            if (route.matchesNodes) {
+                nodeRoutes.add(route);
+            }
+        }
+        this.empty = root.routes.isEmpty() && root.children.isEmpty() && nodeRoutes.isEmpty();
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * job 事件的路由, 第一条命中的规则; event 为 null 时匹配任意 job 事件.
+     */
+    @CheckForNull
+    Route route(final @CheckForNull EventType event, final @Nonnull String fullName) {
+        if (empty) return null;
+        Route best = null;
+        Segment segment = root;
+        int start = 0;
+        while (segment != null) {
+            for (Route route : segment.routes) {
+                if (best != null && route.index > best.index) break;
+                if (route.matches(event, fullName)) {
+                    best = route;
+                    break;
+                }
+            }
+            // 只沿着 folder 走, 最后一段是 job 自己
+            int slash = fullName.indexOf('/', start);
+            if (slash < 0) break;
+            segment = segment.children.get(fullName.substring(start, slash));
+            start = slash + 1;
+        }
+        return best;
+    }
+
+    /**
+     * 节点事件的路由, 第一条命中的规则; event 为 null 时匹配任意节点事件.
+     */
+    @CheckForNull
+    Route route(final @CheckForNull EventType event, final @Nonnull Node node) {
+        for (Route route : nodeRoutes) {
+            if (route.matches(event, node)) return route;
+        }
+        return null;
+    }
+
+    private static final class Segment {
+        final Map<String, Segment> children = new HashMap<>();
+        final List<Route> routes = new ArrayList<>();
+    }
+
+    static final class Route implements WatcherTarget {
+        private final int index;
+        private final Set<EventType> events;
+        private final Pattern jobPattern;
+        private final Label label;
+        private final boolean matchesJobs;
+        private final boolean matchesNodes;
+
+        private final List<String> webhooks;
+        private final Recipients recipients;
+        private final boolean post;
+
+        Route(final int index, final RoutingRule rule) throws ANTLRException {
+            this.index = index;
+            this.events = rule.eventTypes();
+            this.jobPattern = rule.getJobPattern() == null ? null : Pattern.compile(rule.getJobPattern());
+            this.label = rule.getLabelExpression() == null ? null : Label.parseExpression(rule.getLabelExpression());
+            this.matchesJobs = label == null && events.stream().anyMatch(EventType::isJobEvent);
+            this.matchesNodes = rule.getFolder() == null && jobPattern == null
+                    && events.stream().anyMatch(EventType::isComputerEvent);
+            this.webhooks = Webhooks.parse(rule.getWebhookurl());
+            this.recipients = Recipients.parse(rule.getMention());
+            this.post = rule.isPost();
+        }
+
+        boolean matches(final @CheckForNull EventType event, final String fullName) {
+            if (!matchesJobs || webhooks.isEmpty()) return false;
+            if (event != null && (!event.isJobEvent() || !events.contains(event))) return false;
+            return jobPattern == null || jobPattern.matcher(fullName).matches();
+        }
+
+        boolean matches(final @CheckForNull EventType event, final Node node) {
+            if (!matchesNodes || webhooks.isEmpty()) return false;
+            if (event != null && (!event.isComputerEvent() || !events.contains(event))) return false;
+            return label == null || label.matches(node.getAssignedLabels());
+        }
+
+        @Nonnull
+        @Override
+        public List<String> getWebhooks() {
+            return webhooks;
+        }
+
+        @Nonnull
+        @Override
+        public Recipients getRecipients() {
+            return recipients;
+        }
+
+        @Override
+        public boolean isPost() {
+            return post;
+        }
+    }
+}
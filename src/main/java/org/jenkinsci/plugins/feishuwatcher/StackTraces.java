@@ -0,0 +1,102 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * 把消息正文里的异常堆栈压缩成 "最上面几帧 + 根因".
+ * <p>
+ * 节点掉线的原因 ({@code OfflineCause.ChannelTermination} 等) 的 toString 常常是几 KB 的堆栈,
+ * 在群消息里没有用, 还会让请求体超过飞书的大小限制.
+ */
+final class StackTraces {
+
+    static final int MAX_FRAMES = SystemProperties.getInteger(StackTraces.class.getName() + ".maxFrames", 5);
+
+    private static final String CAUSED_BY = "Caused by: ";
+
+    private StackTraces() {
+    }
+
+    /**
+     * 每段堆栈只保留前 {@link #MAX_FRAMES} 帧; 中间的 Caused by 只留最后一个 (根因) 和它的第一帧;
+     * Suppressed 整段去掉. 不含堆栈的文本原样返回.
+     */
+    @CheckForNull
+    static String trim(final @CheckForNull String text) {
+        if (text == null || !text.contains("\tat ")) return text;
+
+        final StringBuilder out = new StringBuilder(Math.min(text.length(), 2048));
+        final Trace trace = new Trace();
+        for (String line : text.split("\r?\n", -1)) {
+            if (line.startsWith("\tat ") || line.startsWith("\t...")) {
+                trace.frame(line, out);
+            } else if (line.startsWith(CAUSED_BY)) {
+                trace.cause(line);
+            } else if (line.startsWith("\t") && trace.started()) {
+                // Suppressed 以及它里面缩进的堆栈
+                trace.omitted++;
+            } else {
+                trace.flush(out);
+                out.append(line).append('\n');
+            }
+        }
+        trace.flush(out);
+        // 每行后面都加了换行, 去掉多出来的最后一个
+        out.setLength(out.length() - 1);
+        return out.toString();
+    }
+
+    /**
+     * 正在扫描的一段堆栈.
+     */
+    private static final class Trace {
+        int kept;
+        int omitted;
+        String rootCause;
+        String rootFrame;
+
+        boolean started() {
+            return kept > 0 || omitted > 0 || rootCause != null;
+        }
+
+        void frame(final String line, final StringBuilder out) {
+            final boolean elided = line.startsWith("\t...");
+            if (rootCause != null) {
+                if (!elided && rootFrame == null) {
+                    rootFrame = line;
+                } else if (!elided) {
+                    omitted++;
+                }
+            } else if (!elided && kept < MAX_FRAMES) {
+                out.append(line).append('\n');
+                kept++;
+            } else if (!elided) {
+                omitted++;
+            }
+        }
+
+        void cause(final String line) {
+            // 中间的 Caused by 和它的第一帧
+            if (rootCause != null) omitted++;
+            if (rootFrame != null) omitted++;
+            rootCause = line;
+            rootFrame = null;
+        }
+
+        void flush(final StringBuilder out) {
+            if (omitted > 0) {
+                out.append("\t... ").append(omitted).append(" lines omitted\n");
+            }
+            if (rootCause != null) {
+                out.append(rootCause).append('\n');
+                if (rootFrame != null) out.append(rootFrame).append('\n');
+            }
+            kept = 0;
+            omitted = 0;
+            rootCause = null;
+            rootFrame = null;
+        }
+    }
+}
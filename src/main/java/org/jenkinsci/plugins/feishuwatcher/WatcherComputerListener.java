@@ -12,6 +12,7 @@ import hudson.slaves.OfflineCause;
 import hudson.util.DescribableList;
 import jenkins.model.Jenkins;
 
+import java.util.List;
 import java.util.logging.Logger;
 
 
@@ -38,36 +39,45 @@ public class WatcherComputerListener extends ComputerListener {
 
     @Override
     public void onOffline(final Computer c) {
-        getNotification().online(false).subject("marked offline").send(c);
+        if (!WatcherRegistry.isWatchedNode(c.getName())) return;
+        IdleTracker.untrack(c);
+        getNotification().online(false).event(EventType.COMPUTER_OFFLINE).subject("marked offline").send(c);
     }
 
     @Override
     public void onOffline(final Computer c, final OfflineCause cause) {
+        if (!WatcherRegistry.isWatchedNode(c.getName())) return;
         if (cause == null) {
             onOffline(c);
             return;
         }
+        IdleTracker.untrack(c);
 
-        getNotification().online(false).subject("marked offline").body(cause.toString()).send(c);
+        getNotification().online(false).event(EventType.COMPUTER_OFFLINE).subject("marked offline").body(cause.toString()).send(c);
     }
 
     @Override
     public void onOnline(final Computer c, final TaskListener listener) {
-        getNotification().online(true).subject("marked online").send(c);
+        if (!WatcherRegistry.isWatchedNode(c.getName())) return;
+        getNotification().online(true).event(EventType.COMPUTER_ONLINE).subject("marked online").send(c);
     }
 
     @Override
     public void onTemporarilyOffline(final Computer c, final OfflineCause cause) {
+        if (!WatcherRegistry.isWatchedNode(c.getName())) return;
         String causeString = "";
         if (cause != null) {
             causeString = cause.toString();
         }
-        getNotification().online(false).subject("marked temporarily offline").body(causeString).send(c);
+        IdleTracker.offline(c, cause);
+        getNotification().online(false).event(EventType.COMPUTER_TEMPORARILY_OFFLINE).subject("marked temporarily offline").body(causeString).send(c);
     }
 
     @Override
     public void onTemporarilyOnline(final Computer c) {
-        getNotification().online(true).subject("marked online (was temporarily offline)").send(c);
+        if (!WatcherRegistry.isWatchedNode(c.getName())) return;
+        IdleTracker.untrack(c);
+        getNotification().online(true).event(EventType.COMPUTER_TEMPORARILY_ONLINE).subject("marked online (was temporarily offline)").send(c);
     }
 
     private Notification.Builder getNotification() {
@@ -102,16 +112,31 @@ public class WatcherComputerListener extends ComputerListener {
             public void send(final Object o) {
                 final Computer computer = (Computer) o;
                 final WatcherNodeProperty property = getWatcherNodeProperty(computer);
+                final Node node = computer.getNode();
 
-                if (property == null) { //只有这里获取 到的 prop 不是null 才去发送通知
-                    return;
+                final List<String> webhooks;
+                final Recipients recipients;
+                final boolean post;
+                if (property != null) {
+                    webhooks = property.getWebhooks();
+                    recipients = property.getRecipients();
+                    post = property.isPost();
+                } else {
+                    // 没有 property 时按全局路由规则
+                    final RoutingTable.Route route = node == null ? null : FeishuWatcherGlobalConfiguration.get().getTable().route(getEvent(), node);
+                    if (route == null) { //只有找到 prop 或者规则才去发送通知
+                        return;
+                    }
+                    webhooks = route.getWebhooks();
+                    recipients = route.getRecipients();
+                    post = route.isPost();
                 }
                 if (!online) {
                     LOGGER.info("online status is: " + online); // 只有online是false的时候才去 @ 人
-                    this.recipients(property.getMention());
+                    this.recipients(recipients);
                 }
-                this.webhookurl(property.getWebhookurl());
-                this.isPost(property.isPost());
+                this.webhooks(webhooks);
+                this.isPost(post);
 
                 this.url(computer.getUrl());
                 this.name(computer.getDisplayName());
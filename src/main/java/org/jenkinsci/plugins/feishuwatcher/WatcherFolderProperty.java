@@ -0,0 +1,131 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import com.cloudbees.hudson.plugins.folder.AbstractFolderProperty;
+import com.cloudbees.hudson.plugins.folder.AbstractFolderPropertyDescriptor;
+import hudson.Extension;
+import hudson.util.FormValidation;
+import hudson.util.Secret;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * folder 上的配置, folder 下面 (包括子 folder) 没有自己的 {@link WatcherJobProperty} 的 job 都继承它,
+ * 离 job 最近的一层生效.
+ */
+public class WatcherFolderProperty extends AbstractFolderProperty<AbstractFolder<?>> implements WatcherTarget {
+
+    private final String webhookurl;
+    private final String mention;
+    private final boolean post;
+    private Secret secret;
+
+    // 解析好的 webhook 和 @ 人列表, 发送时直接用
+    private transient List<String> webhooks;
+    private transient Recipients recipients;
+
+    @DataBoundConstructor
+    public WatcherFolderProperty(final String webhookurl, final String mention, final boolean post) {
+        this.webhookurl = webhookurl;
+        this.mention = mention;
+        this.post = post;
+        parse();
+    }
+
+    protected Object readResolve() {
+        parse();
+        return this;
+    }
+
+    @Override
+    protected void setOwner(final AbstractFolder<?> owner) {
+        super.setOwner(owner);
+        WatcherRegistry.watchFolder(owner);
+    }
+
+    private void parse() {
+        this.webhooks = Webhooks.parse(webhookurl);
+        this.recipients = Recipients.parse(mention);
+    }
+
+    @CheckForNull
+    @Override
+    public Secret getSecret() {
+        return secret;
+    }
+
+    /**
+     * 飞书机器人开启签名校验时的密钥, 见 {@link WebhookSigner}.
+     */
+    @DataBoundSetter
+    public void setSecret(final @CheckForNull Secret secret) {
+        this.secret = secret;
+    }
+
+    public String getWebhookurl() {
+        return webhookurl;
+    }
+
+    public String getMention() {
+        return mention;
+    }
+
+    @Override
+    public boolean isPost() {
+        return post;
+    }
+
+    @Nonnull
+    @Override
+    public List<String> getWebhooks() {
+        return webhooks;
+    }
+
+    @Nonnull
+    @Override
+    public Recipients getRecipients() {
+        return recipients;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends AbstractFolderPropertyDescriptor {
+
+        @Override
+        public AbstractFolderProperty<?> newInstance(final StaplerRequest req, final JSONObject formData) throws FormException {
+            final JSONObject watcherData = formData.getJSONObject("watcherEnabled");
+            if (watcherData.isNullObject())
+                return null;
+
+            final String addresses = watcherData.getString("webhookurl");
+            final String mention = watcherData.getString("mention");
+            final boolean post = watcherData.getBoolean("post");
+
+            if (addresses == null || addresses.isEmpty())
+                return null;
+
+            final WatcherFolderProperty property = new WatcherFolderProperty(addresses, mention, post);
+            property.setSecret(Secret.fromString(watcherData.optString("secret")));
+            return property;
+        }
+
+        public FormValidation doCheckWebhookurl(@QueryParameter String value) {
+            return Webhooks.check(value);
+        }
+
+        public FormValidation doCheckMention(@QueryParameter String value) {
+            return FormValidation.ok();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Feishu when configuration of jobs in this folder changes";
+        }
+    }
+}
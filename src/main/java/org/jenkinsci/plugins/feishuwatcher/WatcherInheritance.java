@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * job 事件发往哪里: job 自己的 {@link WatcherJobProperty}, 否则离它最近的 {@link WatcherFolderProperty},
+ * 否则全局路由规则.
+ * <p>
+ * 每个 job 继承到的 folder 配置缓存起来, 不用每次事件都沿着 folder 一层层往上找;
+ * job 或 folder 保存, 移动, 删除时由 {@link WatcherRegistry.Items} 清掉对应的子树.
+ */
+final class WatcherInheritance {
+
+    /**
+     * job 全名 -> 继承到的 folder 配置
+     */
+    private static final ConcurrentNavigableMap<String, Inherited> CACHE = new ConcurrentSkipListMap<>();
+
+    private WatcherInheritance() {
+    }
+
+    @CheckForNull
+    static WatcherTarget resolve(final @Nonnull Job<?, ?> job, final @CheckForNull EventType event) {
+        final WatcherJobProperty property = job.getProperty(WatcherJobProperty.class);
+        if (property != null) return property;
+
+        final WatcherFolderProperty inherited = folderProperty(job);
+        if (inherited != null) return inherited;
+
+        return FeishuWatcherGlobalConfiguration.get().getTable().route(event, job.getFullName());
+    }
+
+    @CheckForNull
+    static WatcherFolderProperty folderProperty(final @Nonnull Job<?, ?> job) {
+        if (!WatcherRegistry.hasWatchedFolders()) return null;
+        return CACHE.computeIfAbsent(job.getFullName(), k -> new Inherited(lookup(job))).property;
+    }
+
+    @CheckForNull
+    private static WatcherFolderProperty lookup(final Job<?, ?> job) {
+        ItemGroup<?> parent = job.getParent();
+        while (parent instanceof Item) {
+            if (parent instanceof AbstractFolder) {
+                WatcherFolderProperty property = ((AbstractFolder<?>) parent).getProperties().get(WatcherFolderProperty.class);
+                if (property != null) return property;
+            }
+            parent = ((Item) parent).getParent();
+        }
+        return null;
+    }
+
+    /**
+     * 清掉这个 item 和它下面所有 job 的缓存.
+     */
+    static void invalidate(final @Nonnull String fullName) {
+        CACHE.remove(fullName);
+        CACHE.subMap(fullName + "/", fullName + "/\uffff").clear();
+    }
+
+    private static final class Inherited {
+        final WatcherFolderProperty property;
+
+        Inherited(final WatcherFolderProperty property) {
+            this.property = property;
+        }
+    }
+}
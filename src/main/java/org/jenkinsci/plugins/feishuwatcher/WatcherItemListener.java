@@ -7,6 +7,7 @@ import hudson.model.ItemGroup;
 import hudson.model.Job;
 import hudson.model.listeners.ItemListener;
 import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.feishuwatcher.jobConfigHistory.ConfigHistory;
 
 import javax.annotation.Nonnull;
 import java.util.Map;
@@ -37,19 +38,36 @@ public class WatcherItemListener extends ItemListener {
     public void onRenamed(Item item, String oldName, String newName) {
         if (!(item instanceof Job<?, ?>)) return;
         final Job<?, ?> job = (Job<?, ?>) item;
-        getNotification().subject("renamed from " + oldName).send(job);
+        // 此时注册表里还是旧名字
+        final String parent = job.getParent().getFullName();
+        if (!WatcherRegistry.isWatchedJob(parent.isEmpty() ? oldName : parent + "/" + oldName)
+                && !WatcherRegistry.isWatched(job)) return;
+        getNotification().event(EventType.JOB_RENAMED).subject("renamed from " + oldName).send(job);
     }
 
     @Override
     public void onUpdated(Item item) {
-        if (!(item instanceof Job<?, ?>)) return;
-        getNotification().subject("updated").send(item);
+        if (!(item instanceof Job<?, ?>) || !WatcherRegistry.isWatched(item)) return;
+        final Job<?, ?> job = (Job<?, ?>) item;
+        // 保存时就记下这次修改, 不管消息最后是单独发还是进了汇总; 第一次保存要列历史目录, 放到发送线程上做
+        final ConfigHistory.Revisions revisions = feishu.configHistory().saved(job);
+        getNotification().deferredBody(() -> {
+            final String diff = feishu.configHistory().diffUrl(job, revisions);
+            return diff == null ? "" : "配置变更: " + (jenkinsRootUrl == null ? "/" : jenkinsRootUrl) + diff;
+        }).event(EventType.JOB_UPDATED).subject("updated").send(item);
     }
 
     @Override
     public void onDeleted(Item item) {
         if (!(item instanceof Job<?, ?>)) return;
-        getNotification().subject("deleted").send(item);
+        feishu.configHistory().deleted(item.getFullName());
+        if (!WatcherRegistry.isWatched(item)) return;
+        getNotification().event(EventType.JOB_DELETED).subject("deleted").send(item);
+    }
+
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        if (item instanceof Job<?, ?>) feishu.configHistory().moved(oldFullName, newFullName);
     }
 
     private Notification.Builder getNotification() {
@@ -84,14 +102,18 @@ public class WatcherItemListener extends ItemListener {
             public void send(final Object o) {
                 job = (Job<?, ?>) o;
 
-                final WatcherJobProperty property = job.getProperty(WatcherJobProperty.class);
-
-                if (property == null) {
+                if (job.getProperty(WatcherJobProperty.class) == null) {
+                    // property 已经被去掉了
+                    WatcherRegistry.unwatch(job);
+                }
+                // job 自己的 property, 否则继承 folder 的, 否则按全局路由规则
+                final WatcherTarget target = WatcherInheritance.resolve(job, getEvent());
+                if (target == null) {
                     return;
                 }
-                this.recipients(property.getMention());
-                this.webhookurl(property.getWebhookurl());
-                this.isPost(property.isPost());
+                this.recipients(target.getRecipients());
+                this.webhooks(target.getWebhooks());
+                this.isPost(target.isPost());
 
                 Stack<String> stack = new Stack<String>();
                 stack.push(job.getShortUrl());
@@ -5,27 +5,67 @@ import hudson.model.Job;
 import hudson.model.JobProperty;
 import hudson.model.JobPropertyDescriptor;
 import hudson.util.FormValidation;
+import hudson.util.Secret;
 import net.sf.json.JSONObject;
-import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.List;
 import java.util.logging.Logger;
 
 
-public class WatcherJobProperty extends JobProperty<Job<?, ?>> {
+public class WatcherJobProperty extends JobProperty<Job<?, ?>> implements WatcherTarget {
     private static final Logger LOGGER = Logger.getLogger(WatcherJobProperty.class.getName());
 
     private final String webhookurl;
     private final String mention;
     private final boolean post;
+    private Secret secret;
+
+    // 解析好的 webhook 和 @ 人列表, 发送时直接用
+    private transient List<String> webhooks;
+    private transient Recipients recipients;
 
     @DataBoundConstructor
     public WatcherJobProperty(final String webhookurl, final String mention, final boolean post) {
         this.webhookurl = webhookurl;
         this.mention = mention;
         this.post = post;
+        parse();
+    }
+
+    protected Object readResolve() {
+        parse();
+        return this;
+    }
+
+    @Override
+    protected void setOwner(final Job<?, ?> owner) {
+        super.setOwner(owner);
+        WatcherRegistry.watch(owner);
+    }
+
+    private void parse() {
+        this.webhooks = Webhooks.parse(webhookurl);
+        this.recipients = Recipients.parse(mention);
+    }
+
+    @CheckForNull
+    @Override
+    public Secret getSecret() {
+        return secret;
+    }
+
+    /**
+     * 飞书机器人开启签名校验时的密钥, 见 {@link WebhookSigner}.
+     */
+    @DataBoundSetter
+    public void setSecret(final @CheckForNull Secret secret) {
+        this.secret = secret;
     }
 
     public String getWebhookurl() {
@@ -36,10 +76,23 @@ public class WatcherJobProperty extends JobProperty<Job<?, ?>> {
         return mention;
     }
 
+    @Override
     public boolean isPost() {
         return post;
     }
 
+    @Nonnull
+    @Override
+    public List<String> getWebhooks() {
+        return webhooks;
+    }
+
+    @Nonnull
+    @Override
+    public Recipients getRecipients() {
+        return recipients;
+    }
+
     @Extension
     public static class DescriptorImpl extends JobPropertyDescriptor {
 
@@ -61,20 +114,13 @@ public class WatcherJobProperty extends JobProperty<Job<?, ?>> {
             if (addresses == null || addresses.isEmpty())
                 return null;
 
-            return new WatcherJobProperty(addresses, mention, post);
+            final WatcherJobProperty property = new WatcherJobProperty(addresses, mention, post);
+            property.setSecret(Secret.fromString(watcherData.optString("secret")));
+            return property;
         }
 
         public FormValidation doCheckWebhookurl(@QueryParameter String value) {
-            if (StringUtils.isEmpty(value)) {
-                return FormValidation.error("webhook url is empty");
-            }
-            if (!value.startsWith("http")) {
-                return FormValidation.error("webhook url not http/https");
-            }
-            if (!value.contains("/open-apis/bot/v2/hook")) {
-                return FormValidation.error("webhook api should be open-apis/bot/v2/hook");
-            }
-            return FormValidation.ok();
+            return Webhooks.check(value);
         }
 
         public FormValidation doCheckMention(@QueryParameter String value) {
@@ -5,27 +5,110 @@ import hudson.model.Node;
 import hudson.slaves.NodeProperty;
 import hudson.slaves.NodePropertyDescriptor;
 import hudson.util.FormValidation;
+import hudson.util.Secret;
 import net.sf.json.JSONObject;
-import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.List;
 import java.util.logging.Logger;
 
 
-public class WatcherNodeProperty extends NodeProperty<Node> {
+public class WatcherNodeProperty extends NodeProperty<Node> implements WatcherTarget {
     private static final Logger LOGGER = Logger.getLogger(WatcherNodeProperty.class.getName());
 
     private final String webhookurl;
     private final String mention;
     private final boolean post;
+    private Secret secret;
+
+    // 资源告警阈值, 0 表示不检查, 见 NodeHealthWatcher
+    private double minDiskSpaceGb;
+    private double minTmpSpaceGb;
+    private int minSwapMb;
+    private int maxClockDriftSeconds;
+
+    // 解析好的 webhook 和 @ 人列表, 发送时直接用
+    private transient List<String> webhooks;
+    private transient Recipients recipients;
 
     @DataBoundConstructor
     public WatcherNodeProperty(final String webhookurl, final String mention, final boolean post) {
         this.webhookurl = webhookurl;
         this.mention = mention;
         this.post = post;
+        parse();
+    }
+
+    protected Object readResolve() {
+        parse();
+        return this;
+    }
+
+    private void parse() {
+        this.webhooks = Webhooks.parse(webhookurl);
+        this.recipients = Recipients.parse(mention);
+    }
+
+    public double getMinDiskSpaceGb() {
+        return minDiskSpaceGb;
+    }
+
+    @DataBoundSetter
+    public void setMinDiskSpaceGb(final double minDiskSpaceGb) {
+        this.minDiskSpaceGb = Math.max(0, minDiskSpaceGb);
+    }
+
+    public double getMinTmpSpaceGb() {
+        return minTmpSpaceGb;
+    }
+
+    @DataBoundSetter
+    public void setMinTmpSpaceGb(final double minTmpSpaceGb) {
+        this.minTmpSpaceGb = Math.max(0, minTmpSpaceGb);
+    }
+
+    public int getMinSwapMb() {
+        return minSwapMb;
+    }
+
+    @DataBoundSetter
+    public void setMinSwapMb(final int minSwapMb) {
+        this.minSwapMb = Math.max(0, minSwapMb);
+    }
+
+    public int getMaxClockDriftSeconds() {
+        return maxClockDriftSeconds;
+    }
+
+    @DataBoundSetter
+    public void setMaxClockDriftSeconds(final int maxClockDriftSeconds) {
+        this.maxClockDriftSeconds = Math.max(0, maxClockDriftSeconds);
+    }
+
+    /**
+     * 是否配置了任何资源告警阈值.
+     */
+    boolean hasHealthThresholds() {
+        return minDiskSpaceGb > 0 || minTmpSpaceGb > 0 || minSwapMb > 0 || maxClockDriftSeconds > 0;
+    }
+
+    @CheckForNull
+    @Override
+    public Secret getSecret() {
+        return secret;
+    }
+
+    /**
+     * 飞书机器人开启签名校验时的密钥, 见 {@link WebhookSigner}.
+     */
+    @DataBoundSetter
+    public void setSecret(final @CheckForNull Secret secret) {
+        this.secret = secret;
     }
 
     public String getWebhookurl() {
@@ -36,10 +119,23 @@ public class WatcherNodeProperty extends NodeProperty<Node> {
         return mention;
     }
 
+    @Override
     public boolean isPost() {
         return post;
     }
 
+    @Nonnull
+    @Override
+    public List<String> getWebhooks() {
+        return webhooks;
+    }
+
+    @Nonnull
+    @Override
+    public Recipients getRecipients() {
+        return recipients;
+    }
+
     @Extension
     public static class DescriptorImpl extends NodePropertyDescriptor {
 
@@ -59,20 +155,17 @@ public class WatcherNodeProperty extends NodeProperty<Node> {
 
             if (webhookurl.isEmpty() && mention.isEmpty()) return null;
 
-            return new WatcherNodeProperty(webhookurl, mention, post);
+            final WatcherNodeProperty property = new WatcherNodeProperty(webhookurl, mention, post);
+            property.setMinDiskSpaceGb(formData.optDouble("minDiskSpaceGb", 0));
+            property.setMinTmpSpaceGb(formData.optDouble("minTmpSpaceGb", 0));
+            property.setMinSwapMb(formData.optInt("minSwapMb", 0));
+            property.setMaxClockDriftSeconds(formData.optInt("maxClockDriftSeconds", 0));
+            property.setSecret(Secret.fromString(formData.optString("secret")));
+            return property;
         }
 
         public FormValidation doCheckWebhookurl(@QueryParameter String value) {
-            if(StringUtils.isEmpty(value)){
-                return FormValidation.error("webhook url is empty");
-            }
-            if(!value.startsWith("http")){
-                return FormValidation.error("webhook url not http/https");
-            }
-            if(!value.contains("/open-apis/bot/v2/hook")){
-                return FormValidation.error("webhook api should be open-apis/bot/v2/hook");
-            }
-            return FormValidation.ok();
+            return Webhooks.check(value);
         }
 
         public FormValidation doCheckMention(@QueryParameter String value) {
@@ -0,0 +1,199 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.listeners.ItemListener;
+import hudson.slaves.ComputerListener;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * 配置了 {@link WatcherJobProperty} 的 job, 配置了 {@link WatcherFolderProperty} 的 folder 和配置了 {@link WatcherNodeProperty} 的节点.
+ * <p>
+ * 监听器先查这里, 没有被关注的 job/节点一次集合查找就返回, 不再创建 Builder, 也不去读 property.
+ * job 在 {@link WatcherJobProperty#setOwner} 时登记 (加载和保存配置都会调用), 改名, 移动, 删除时跟着更新;
+ * 去掉 property 的 job 在下一次事件时发现 property 为空再移除.
+ * 节点在节点列表变化时整体重新扫描一次.
+ * folder 下面的 job, 全局路由规则 ({@link FeishuWatcherGlobalConfiguration}) 命中的 job 和节点也算被关注.
+ */
+final class WatcherRegistry {
+
+    private static final NavigableSet<String> JOBS = new ConcurrentSkipListSet<>();
+    private static final NavigableSet<String> FOLDERS = new ConcurrentSkipListSet<>();
+    private static volatile Set<String> nodes = new HashSet<>();
+
+    private WatcherRegistry() {
+    }
+
+    static boolean isWatched(final @Nonnull Item item) {
+        return isWatchedJob(item.getFullName());
+    }
+
+    static boolean isWatchedJob(final @Nonnull String fullName) {
+        return JOBS.contains(fullName) || inWatchedFolder(fullName)
+                || FeishuWatcherGlobalConfiguration.get().getTable().route(null, fullName) != null;
+    }
+
+    /**
+     * 按 '/' 逐级查上层 folder, 只是几次集合查找.
+     */
+    private static boolean inWatchedFolder(final String fullName) {
+        if (FOLDERS.isEmpty()) return false;
+        for (int slash = fullName.indexOf('/'); slash > 0; slash = fullName.indexOf('/', slash + 1)) {
+            if (FOLDERS.contains(fullName.substring(0, slash))) return true;
+        }
+        return false;
+    }
+
+    static boolean hasWatchedFolders() {
+        return !FOLDERS.isEmpty();
+    }
+
+    static boolean isWatchedNode(final @Nonnull String name) {
+        return nodes.contains(name);
+    }
+
+    static void watch(final @Nonnull Job<?, ?> job) {
+        JOBS.add(job.getFullName());
+        WebhookSigner.invalidate();
+    }
+
+    static void watchFolder(final @Nonnull AbstractFolder<?> folder) {
+        FOLDERS.add(folder.getFullName());
+        WebhookSigner.invalidate();
+    }
+
+    static void unwatch(final @Nonnull Item item) {
+        JOBS.remove(item.getFullName());
+    }
+
+    /**
+     * 删除 folder 时只有 folder 自己的事件, 里面的 job 一起去掉.
+     */
+    private static void removeTree(final String fullName) {
+        JOBS.remove(fullName);
+        JOBS.subSet(fullName + "/", fullName + "/\uffff").clear();
+        FOLDERS.remove(fullName);
+        FOLDERS.subSet(fullName + "/", fullName + "/\uffff").clear();
+    }
+
+    /**
+     * 当前所有的 job/folder/节点 property, 只查登记过的.
+     */
+    @Nonnull
+    static List<WatcherTarget> properties() {
+        List<WatcherTarget> properties = new ArrayList<>();
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) return properties;
+        addIfPresent(properties, jenkins.getNodeProperties().get(WatcherNodeProperty.class));
+        for (Node node : jenkins.getNodes()) {
+            addIfPresent(properties, node.getNodeProperties().get(WatcherNodeProperty.class));
+        }
+        for (String name : FOLDERS) {
+            AbstractFolder<?> folder = jenkins.getItemByFullName(name, AbstractFolder.class);
+            if (folder != null) addIfPresent(properties, folder.getProperties().get(WatcherFolderProperty.class));
+        }
+        for (String name : JOBS) {
+            Job<?, ?> job = jenkins.getItemByFullName(name, Job.class);
+            if (job != null) addIfPresent(properties, job.getProperty(WatcherJobProperty.class));
+        }
+        return properties;
+    }
+
+    private static void addIfPresent(final List<WatcherTarget> properties, final WatcherTarget property) {
+        if (property != null) properties.add(property);
+    }
+
+    static void rescanNodes() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) return;
+        RoutingTable table = FeishuWatcherGlobalConfiguration.get().getTable();
+        Set<String> watched = new HashSet<>();
+        if (isWatched(jenkins, jenkins.getNodeProperties().get(WatcherNodeProperty.class), table)) {
+            watched.add(jenkins.getNodeName());
+        }
+        for (Node node : jenkins.getNodes()) {
+            if (isWatched(node, node.getNodeProperties().get(WatcherNodeProperty.class), table)) {
+                watched.add(node.getNodeName());
+            }
+        }
+        nodes = watched;
+    }
+
+    private static boolean isWatched(final Node node, final WatcherNodeProperty property, final RoutingTable table) {
+        return property != null || table.route(null, node) != null;
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void init() {
+        rescanNodes();
+        IdleTracker.init();
+        WebhookSigner.invalidate();
+    }
+
+    /**
+     * 排在通知监听器之后, 这样删除和改名的通知还能查到旧名字.
+     */
+    @Extension(ordinal = -100)
+    public static class Items extends ItemListener {
+
+        @Override
+        public void onCreated(final Item item) {
+            WebhookSigner.invalidate();
+        }
+
+        @Override
+        public void onUpdated(final Item item) {
+            if (item instanceof AbstractFolder) {
+                // folder 配置变了, 下面的 job 重新找继承的配置
+                if (((AbstractFolder<?>) item).getProperties().get(WatcherFolderProperty.class) == null) {
+                    FOLDERS.remove(item.getFullName());
+                }
+            }
+            WatcherInheritance.invalidate(item.getFullName());
+            WebhookSigner.invalidate();
+        }
+
+        @Override
+        public void onLocationChanged(final Item item, final String oldFullName, final String newFullName) {
+            if (JOBS.remove(oldFullName)) {
+                JOBS.add(newFullName);
+            }
+            if (FOLDERS.remove(oldFullName)) {
+                FOLDERS.add(newFullName);
+            }
+            WatcherInheritance.invalidate(oldFullName);
+            WatcherInheritance.invalidate(newFullName);
+            WebhookSigner.invalidate();
+        }
+
+        @Override
+        public void onDeleted(final Item item) {
+            removeTree(item.getFullName());
+            WatcherInheritance.invalidate(item.getFullName());
+            WebhookSigner.invalidate();
+        }
+    }
+
+    @Extension
+    public static class Nodes extends ComputerListener {
+
+        @Override
+        public void onConfigurationChange() {
+            rescanNodes();
+            WebhookSigner.invalidate();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.util.Secret;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * 一个事件发往哪里: job/folder/节点上的 property, 或者全局路由规则.
+ */
+public interface WatcherTarget {
+
+    @Nonnull
+    List<String> getWebhooks();
+
+    @Nonnull
+    Recipients getRecipients();
+
+    boolean isPost();
+
+    /**
+     * 机器人的签名密钥, 见 {@link WebhookSigner}; 全局路由规则没有.
+     */
+    @CheckForNull
+    default Secret getSecret() {
+        return null;
+    }
+}
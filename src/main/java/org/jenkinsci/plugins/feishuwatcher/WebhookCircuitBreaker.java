@@ -0,0 +1,234 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.util.FormValidation;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 每个 webhook 一个熔断器: 机器人被删除或 token 失效之后, 不再每条消息都去连一次飞书.
+ * <p>
+ * 连续 {@link #FAILURE_THRESHOLD} 次被飞书拒绝 (PERMANENT), 或者返回 {@link #FATAL_CODES} 里的错误码 (比如 19001 token 无效) / HTTP 404 时打开,
+ * 打开期间的消息直接失败, 不发请求. 打开 {@link #BASE_OPEN_MS} 之后放一条消息过去试探 (半开),
+ * 成功就恢复, 失败就再打开, 打开时间翻倍, 最多 {@link #MAX_OPEN_MS}.
+ * 限流 (429, 9499, 11232), 5xx 和连不上都不算失败: 这些是飞书或者网络的临时问题, 不说明机器人没了,
+ * 交给 {@link FeishuDelivery} 重试并写入 outbox, 不能让熔断把消息丢掉.
+ */
+public final class WebhookCircuitBreaker {
+    private static final Logger LOGGER = Logger.getLogger(WebhookCircuitBreaker.class.getName());
+
+    private static final String PREFIX = WebhookCircuitBreaker.class.getName() + ".";
+
+    static final int FAILURE_THRESHOLD = SystemProperties.getInteger(PREFIX + "failureThreshold", 5);
+    static final long BASE_OPEN_MS = SystemProperties.getLong(PREFIX + "baseOpenMs", TimeUnit.SECONDS.toMillis(30));
+    static final long MAX_OPEN_MS = SystemProperties.getLong(PREFIX + "maxOpenMs", TimeUnit.MINUTES.toMillis(30));
+
+    /**
+     * 说明机器人已经不可用的飞书错误码, 逗号分隔.
+     */
+    static final Set<Integer> FATAL_CODES = codes(SystemProperties.getString(PREFIX + "fatalCodes", "19001"));
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private static final Map<String, WebhookCircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final String url;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openMs;
+    private long openUntil;
+    private long openedAt;
+    private String lastError;
+    private long rejected;
+    private long lastUsed = System.currentTimeMillis();
+
+    private WebhookCircuitBreaker(final String url) {
+        this.url = url;
+    }
+
+    @Nonnull
+    static WebhookCircuitBreaker of(final @Nonnull String url) {
+        return BREAKERS.computeIfAbsent(url, WebhookCircuitBreaker::new);
+    }
+
+    @CheckForNull
+    static WebhookCircuitBreaker peek(final @Nonnull String url) {
+        return BREAKERS.get(url);
+    }
+
+    @Nonnull
+    public static Map<String, WebhookCircuitBreaker> all() {
+        return Collections.unmodifiableMap(BREAKERS);
+    }
+
+    private static Set<Integer> codes(final String value) {
+        Set<Integer> codes = new HashSet<>();
+        for (String s : value.split(",")) {
+            try {
+                codes.add(Integer.parseInt(s.trim()));
+            } catch (NumberFormatException e) {
+                // ignore
+            }
+        }
+        return Collections.unmodifiableSet(codes);
+    }
+
+    /**
+     * 入队前的快速判断, 不改变状态: 打开期间或者正在试探时直接拒绝, 不占用限流配额.
+     */
+    synchronized boolean rejects() {
+        lastUsed = System.currentTimeMillis();
+        boolean reject = state == State.HALF_OPEN || state == State.OPEN && System.currentTimeMillis() < openUntil;
+        if (reject) rejected++;
+        return reject;
+    }
+
+    /**
+     * 发请求之前调用, 这条消息能不能发出去. 打开期间返回 false; 到了试探时间放一条过去, 它回来之前其余的仍然返回 false.
+     */
+    synchronized boolean allow() {
+        lastUsed = System.currentTimeMillis();
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() >= openUntil) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                rejected++;
+                return false;
+            default:
+                rejected++;
+                return false;
+        }
+    }
+
+    /**
+     * 记录一次请求的结果. outcome 为 null 表示请求没有结果 (发请求时抛了异常), 半开的试探要重新打开, 不能一直停在半开.
+     */
+    synchronized void record(final @CheckForNull FeishuDelivery.Outcome outcome) {
+        if (outcome == null) {
+            if (state == State.HALF_OPEN) reopen();
+            return;
+        }
+        if (outcome.isSuccess()) {
+            if (state != State.CLOSED) {
+                LOGGER.info("webhook " + getDisplayName() + " recovered, closing circuit");
+            }
+            state = State.CLOSED;
+            failures = 0;
+            openMs = 0;
+            lastError = null;
+            return;
+        }
+        if (outcome.getStatus() == FeishuDelivery.Outcome.Status.TRANSIENT) {
+            // 限流说明机器人还在, 半开的试探算通过; 5xx 和连不上说明不了什么, 过一会再试探
+            if (state == State.HALF_OPEN) {
+                if (outcome.getHttpStatus() == 0 || outcome.getHttpStatus() >= 500) {
+                    reopen();
+                } else {
+                    state = State.CLOSED;
+                }
+            }
+            return;
+        }
+        if (outcome.getStatus() != FeishuDelivery.Outcome.Status.PERMANENT) {
+            return;
+        }
+        failures++;
+        lastError = outcome.toString();
+        boolean fatal = outcome.getHttpStatus() == 404 || FATAL_CODES.contains(outcome.getCode());
+        if (state == State.HALF_OPEN || fatal || failures >= FAILURE_THRESHOLD) {
+            openMs = openMs == 0 ? BASE_OPEN_MS : Math.min(MAX_OPEN_MS, openMs * 2);
+            if (state != State.OPEN) {
+                LOGGER.warning("webhook " + getDisplayName() + " is failing, opening circuit for " + openMs + "ms: " + lastError);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            openUntil = openedAt + openMs;
+        }
+    }
+
+    /**
+     * 试探没有结论: 按原来的时长重新打开, 不翻倍.
+     */
+    private void reopen() {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + openMs;
+    }
+
+    /**
+     * 关闭状态, 没有失败记录, 并且超过 idleMs 没有用过; 打开的熔断器要留着, 否则坏掉的机器人又会被一直请求.
+     */
+    private synchronized boolean isIdle(final long now, final long idleMs) {
+        return state == State.CLOSED && failures == 0 && now - lastUsed > idleMs;
+    }
+
+    /**
+     * 见 {@link WebhookRateLimiter.IdleEviction}.
+     */
+    static void evictIdle(final long idleMs) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, WebhookCircuitBreaker> e : BREAKERS.entrySet()) {
+            if (e.getValue().isIdle(now, idleMs)) {
+                BREAKERS.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * 配置页面上的提示: 这个 webhook 最近一直失败.
+     */
+    @Nonnull
+    static FormValidation check(final @CheckForNull String webhookurl) {
+        for (String url : Webhooks.parse(webhookurl)) {
+            WebhookCircuitBreaker breaker = peek(url);
+            if (breaker != null && breaker.isBroken()) {
+                return FormValidation.warning("webhook " + breaker.getDisplayName() + " has been failing since "
+                        + breaker.getOpenedAt() + ": " + breaker.getLastError());
+            }
+        }
+        return FormValidation.ok();
+    }
+
+    public String getDisplayName() {
+        return FeishuWatcher.maskWebhook(url);
+    }
+
+    public synchronized String getState() {
+        return state.name();
+    }
+
+    public synchronized boolean isBroken() {
+        return state != State.CLOSED;
+    }
+
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    @CheckForNull
+    public synchronized Date getOpenedAt() {
+        return state == State.CLOSED ? null : new Date(openedAt);
+    }
+
+    @CheckForNull
+    public synchronized String getLastError() {
+        return lastError;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,163 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个 webhook 一个限流器, 让发送速率略低于飞书自定义机器人的配额 (5 条/秒, 100 条/分钟).
+ * <p>
+ * 超出速率的消息不直接发出去被拒绝, 而是告诉调用方需要延后多久;
+ * 排队时间超过 {@link #MAX_DELAY_MS} 的消息直接丢弃.
+ * 每个窗口是一个 GCRA (等价于令牌桶), 一次 {@link #reserve()} 同时占用两个窗口.
+ * <p>
+ * 超过 {@link #IDLE_EVICT_MS} 没有用过, 也没有排队的限流器由 {@link IdleEviction} 移除,
+ * 删掉或者换掉的 webhook 不会一直留在内存里; 熔断器同样处理.
+ */
+public final class WebhookRateLimiter {
+
+    private static final String PREFIX = WebhookRateLimiter.class.getName() + ".";
+
+    static final int PER_SECOND = SystemProperties.getInteger(PREFIX + "perSecond", 4);
+    static final int PER_MINUTE = SystemProperties.getInteger(PREFIX + "perMinute", 80);
+    static final int MINUTE_BURST = SystemProperties.getInteger(PREFIX + "minuteBurst", 15);
+    static final long MAX_DELAY_MS = SystemProperties.getLong(PREFIX + "maxDelayMs", TimeUnit.MINUTES.toMillis(5));
+    static final long IDLE_EVICT_MS = SystemProperties.getLong(PREFIX + "idleEvictMs", TimeUnit.HOURS.toMillis(1));
+
+    private static final Map<String, WebhookRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private final String url;
+    private final Window second = new Window(TimeUnit.SECONDS.toNanos(1) / PER_SECOND, PER_SECOND);
+    private final Window minute = new Window(TimeUnit.MINUTES.toNanos(1) / PER_MINUTE, MINUTE_BURST);
+
+    private long passed;
+    private long delayed;
+    private long shed;
+    private long lastUsed = System.nanoTime();
+
+    private WebhookRateLimiter(final String url) {
+        this.url = url;
+    }
+
+    @Nonnull
+    static WebhookRateLimiter of(final @Nonnull String url) {
+        return LIMITERS.computeIfAbsent(url, WebhookRateLimiter::new);
+    }
+
+    @Nonnull
+    public static Map<String, WebhookRateLimiter> all() {
+        return Collections.unmodifiableMap(LIMITERS);
+    }
+
+    /**
+     * 为一条消息预约发送时间.
+     *
+     * @return 需要等待的毫秒数, 0 表示立即发送, -1 表示排队太久被丢弃
+     */
+    synchronized long reserve() {
+        long now = System.nanoTime();
+        lastUsed = now;
+        long wait = Math.max(second.waitNanos(now), minute.waitNanos(now));
+        if (wait > TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MS)) {
+            shed++;
+            return -1;
+        }
+        second.take(now + wait);
+        minute.take(now + wait);
+        if (wait > 0) {
+            delayed++;
+            return Math.max(1L, TimeUnit.NANOSECONDS.toMillis(wait));
+        }
+        passed++;
+        return 0;
+    }
+
+    /**
+     * 没有排队的消息, 并且超过 idleNanos 没有用过.
+     */
+    private synchronized boolean isIdle(final long now, final long idleNanos) {
+        return now - lastUsed > idleNanos && second.waitNanos(now) == 0 && minute.waitNanos(now) == 0;
+    }
+
+    static void evictIdle(final long idleMs) {
+        long now = System.nanoTime();
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMs);
+        for (Map.Entry<String, WebhookRateLimiter> e : LIMITERS.entrySet()) {
+            if (e.getValue().isIdle(now, idleNanos)) {
+                // 只移除检查过的这个实例, 刚被替换的不动
+                LIMITERS.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    public String getDisplayName() {
+        return FeishuWatcher.maskWebhook(url);
+    }
+
+    public synchronized long getPassed() {
+        return passed;
+    }
+
+    public synchronized long getDelayed() {
+        return delayed;
+    }
+
+    public synchronized long getShed() {
+        return shed;
+    }
+
+    /**
+     * 当前排队的消息还要等多久才能发出.
+     */
+    public synchronized long getBacklogMs() {
+        long now = System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(second.waitNanos(now), minute.waitNanos(now)));
+    }
+
+    /**
+     * 定期移除长时间不用的限流器和熔断器.
+     */
+    @Extension
+    public static class IdleEviction extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return Math.max(MIN, IDLE_EVICT_MS / 6);
+        }
+
+        @Override
+        protected void doRun() {
+            evictIdle(IDLE_EVICT_MS);
+            WebhookCircuitBreaker.evictIdle(IDLE_EVICT_MS);
+        }
+    }
+
+    /**
+     * GCRA: 每条消息把 "理论到达时间" 往后推一个间隔, 允许最多 burst 条的提前量.
+     */
+    private static final class Window {
+        private final long interval;
+        private final long tolerance;
+        private long tat = Long.MIN_VALUE;
+
+        Window(final long interval, final int burst) {
+            this.interval = interval;
+            this.tolerance = interval * Math.max(0, burst - 1);
+        }
+
+        long waitNanos(final long now) {
+            if (tat == Long.MIN_VALUE) return 0;
+            return Math.max(0L, tat - tolerance - now);
+        }
+
+        void take(final long at) {
+            tat = (tat == Long.MIN_VALUE ? at : Math.max(tat, at)) + interval;
+        }
+    }
+}
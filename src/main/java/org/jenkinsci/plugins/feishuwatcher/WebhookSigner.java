@@ -0,0 +1,151 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.util.Secret;
+
+import javax.annotation.Nonnull;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 飞书自定义机器人的签名校验: 请求体里带上 timestamp 和 sign,
+ * sign = Base64(HmacSHA256(key = timestamp + "\n" + 密钥, 数据为空)).
+ * <p>
+ * 密钥按 webhook 地址查找. job/folder/节点/全局配置变化时只标记一下, 下一次签名时再从所有 property 整体重建这张表,
+ * 保存配置的线程上不做额外的事; 去掉的密钥和 property 随之失效, outbox 重放的消息同样会签名.
+ * 签名的 key 里带着时间戳, 每秒都不一样: 每个线程缓存一个 Mac 实例, 省掉每次查找算法实现;
+ * 每个 webhook 缓存最近一秒的签名, 同一秒里的一批消息只算一次.
+ */
+final class WebhookSigner {
+    private static final Logger LOGGER = Logger.getLogger(WebhookSigner.class.getName());
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * webhook -> 签名器, 整体替换, 不修改.
+     */
+    private static volatile Map<String, WebhookSigner> signers = Collections.emptyMap();
+
+    /**
+     * 配置变过, 下一次签名前要重建 {@link #signers}.
+     */
+    private static volatile boolean stale = true;
+
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // 每个 JRE 都必须支持 HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Secret secret;
+    private volatile Signature last;
+
+    private WebhookSigner(final Secret secret) {
+        this.secret = secret;
+    }
+
+    /**
+     * 配置变化时调用, 只设置一个标记, 可以在监听器线程上调用.
+     */
+    static void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * 从所有 property 重建 webhook -> 密钥. 同一个 webhook 配了不同的密钥时用先找到的 (节点, folder, job 的顺序) 并警告;
+     * 密钥没变的签名器原样保留, 缓存的签名不失效.
+     */
+    private static synchronized void rebuild() {
+        if (!stale) return;
+        // 先清标记: 重建期间又有配置变化的话, 下一次签名会再重建
+        stale = false;
+        final Map<String, WebhookSigner> current = signers;
+        final Map<String, WebhookSigner> next = new HashMap<>();
+        for (WatcherTarget target : WatcherRegistry.properties()) {
+            final Secret secret = target.getSecret();
+            if (secret == null || secret.getPlainText().isEmpty()) continue;
+            for (String url : target.getWebhooks()) {
+                WebhookSigner existing = next.get(url);
+                if (existing != null) {
+                    if (!existing.secret.equals(secret)) {
+                        LOGGER.warning("webhook " + FeishuWatcher.maskWebhook(url) + " is configured with different signing secrets, using the first one");
+                    }
+                    continue;
+                }
+                WebhookSigner signer = current.get(url);
+                next.put(url, signer != null && signer.secret.equals(secret) ? signer : new WebhookSigner(secret));
+            }
+        }
+        signers = Collections.unmodifiableMap(next);
+    }
+
+    /**
+     * 给请求体加上 timestamp 和 sign 字段; 没有登记密钥的 webhook 原样返回.
+     * 直接在已经编码好的字节前面插入, 不重新序列化.
+     */
+    @Nonnull
+    static FeishuPayload sign(final @Nonnull String url, final @Nonnull FeishuPayload payload) {
+        if (stale) rebuild();
+        WebhookSigner signer = signers.get(url);
+        if (signer == null) return payload;
+        byte[] fields = signer.signature(System.currentTimeMillis() / 1000).fields;
+        byte[] body = payload.bytes();
+        // body 以 { 开头; 后面还有字段时补一个逗号
+        boolean more = body.length > 1 && body[1] != '}';
+        byte[] out = new byte[body.length + fields.length + (more ? 1 : 0)];
+        out[0] = '{';
+        System.arraycopy(fields, 0, out, 1, fields.length);
+        int at = 1 + fields.length;
+        if (more) out[at++] = ',';
+        System.arraycopy(body, 1, out, at, body.length - 1);
+        return new FeishuPayload(out);
+    }
+
+    private Signature signature(final long timestamp) {
+        Signature s = last;
+        if (s != null && s.timestamp == timestamp) return s;
+        s = new Signature(timestamp, sign(Secret.toString(secret), timestamp));
+        last = s;
+        return s;
+    }
+
+    /**
+     * 某个时间戳 (秒) 的签名, 和飞书文档里的示例代码算法相同.
+     */
+    @Nonnull
+    static String sign(final @Nonnull String secret, final long timestamp) {
+        String key = timestamp + "\n" + secret;
+        Mac mac = MAC.get();
+        try {
+            mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            // HMAC 接受任意非空的 key
+            throw new IllegalStateException(e);
+        }
+        return Base64.getEncoder().encodeToString(mac.doFinal());
+    }
+
+    /**
+     * 某一秒的签名, 已经编码成 "timestamp":"...","sign":"..." 的字节.
+     */
+    private static final class Signature {
+        final long timestamp;
+        final byte[] fields;
+
+        Signature(final long timestamp, final String sign) {
+            this.timestamp = timestamp;
+            // Base64 的字符不需要转义
+            this.fields = ("\"timestamp\":\"" + timestamp + "\",\"sign\":\"" + sign + "\"").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
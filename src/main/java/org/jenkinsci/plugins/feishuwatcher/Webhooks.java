@@ -0,0 +1,57 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import hudson.util.FormValidation;
+import org.apache.commons.lang.StringUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 逗号分隔的 webhook 地址, 只在属性保存/加载时解析一次.
+ */
+final class Webhooks {
+
+    private static final Splitter SPLITTER = Splitter.on(',').omitEmptyStrings().trimResults();
+
+    private Webhooks() {
+    }
+
+    /**
+     * 拆分, 去掉空白和重复的地址.
+     */
+    @Nonnull
+    static List<String> parse(final @CheckForNull String webhookurl) {
+        if (StringUtils.isBlank(webhookurl)) return ImmutableList.of();
+        Set<String> urls = new LinkedHashSet<>();
+        for (String url : SPLITTER.split(webhookurl)) {
+            urls.add(url);
+        }
+        return ImmutableList.copyOf(urls);
+    }
+
+    /**
+     * job, folder, 节点的配置和路由规则共用的表单校验: 每个地址都要是飞书自定义机器人的 webhook,
+     * 格式没问题时再提示最近一直发送失败的 webhook.
+     */
+    @Nonnull
+    static FormValidation check(final @CheckForNull String value) {
+        List<String> urls = parse(value);
+        if (urls.isEmpty()) {
+            return FormValidation.error("webhook url is empty");
+        }
+        for (String url : urls) {
+            if (!url.startsWith("http")) {
+                return FormValidation.error("webhook url not http/https");
+            }
+            if (!url.contains("/open-apis/bot/v2/hook")) {
+                return FormValidation.error("webhook api should be open-apis/bot/v2/hook");
+            }
+        }
+        return WebhookCircuitBreaker.check(value);
+    }
+}
@@ -1,51 +1,175 @@
 package org.jenkinsci.plugins.feishuwatcher.jobConfigHistory;
 
 import hudson.model.Job;
-import hudson.plugins.jobConfigHistory.ConfigInfo;
 import hudson.plugins.jobConfigHistory.JobConfigHistory;
-import hudson.plugins.jobConfigHistory.JobConfigHistoryProjectAction;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang.StringUtils;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
-import java.io.IOException;
-import java.util.List;
+import java.io.File;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
 
 
+/**
+ * 每个 job 缓存最近两次配置修改的时间戳, 用来生成 diff 链接.
+ * <p>
+ * 缓存在 job 保存时 (监听器回调里) 更新: 只检查保存时刻往前几秒对应的历史目录是否存在, 不扫描整个历史目录,
+ * 和消息最后是单独发送还是被合并进汇总无关.
+ * 一个 job 第一次保存时还不知道上一次修改, 这时才列一遍历史目录, 只看目录名 (就是时间戳), 放在发送线程上做,
+ * 每个 job 在一次 Jenkins 运行里最多一次.
+ * 缓存只保存被监听的 job, job 删除时去掉, 改名时跟着改.
+ */
 public class ConfigHistory {
+    private static final Logger LOGGER = Logger.getLogger(ConfigHistory.class.getName());
+
+    /**
+     * jobConfigHistory 历史目录名的格式, 按本地时区.
+     */
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    /**
+     * jobConfigHistory 在 job 保存时写历史目录, 之后才回调 ItemListener, 中间最多隔几秒.
+     */
+    private static final int PROBE_SECONDS = 3;
 
     private final JobConfigHistory plugin;
 
+    private final Map<String, Revisions> revisions = new ConcurrentHashMap<>();
+
     public ConfigHistory(final JobConfigHistory plugin) {
         this.plugin = plugin;
     }
 
+    /**
+     * job 刚保存过, 在监听器回调里调用: 找到这次保存写下的历史目录, 更新缓存.
+     *
+     * @return 这次保存时最近两次修改的时间戳, 交给 {@link #diffUrl} 生成链接; 没有装 jobConfigHistory 或者还没有历史时返回 null
+     */
     public @CheckForNull
-    String lastChangeDiffUrl(final @Nonnull Job<?, ?> job) {
+    Revisions saved(final @Nonnull Job<?, ?> job) {
         if (plugin == null) return null;
+        final File dir = historyDir(job);
+        if (dir == null) return null;
+        final LocalDateTime now = LocalDateTime.now();
+        return revisions.compute(job.getFullName(), (key, cached) -> probe(dir, now, cached));
+    }
 
-        final List<ConfigInfo> configs = storedConfigurations(job);
-        if (configs == null || configs.size() < 2) return null;
+    /**
+     * 保存时那两次修改之间的 diff 链接. 第一次保存的 job 不知道上一次修改, 这里列一遍历史目录补上, 会读磁盘, 只在发送线程上调用.
+     */
+    public @CheckForNull
+    String diffUrl(final @Nonnull Job<?, ?> job, final @CheckForNull Revisions saved) {
+        if (saved == null) return null;
+        Revisions last = saved;
+        if (last.previous == null && !last.seeded) {
+            final File dir = historyDir(job);
+            if (dir == null) return null;
+            last = seed(dir, last.latest);
+            final Revisions seeded = last;
+            // 期间又保存过的话, 缓存里已经有更新的两次修改了, 不要覆盖
+            revisions.computeIfPresent(job.getFullName(), (key, cached) -> cached.latest.equals(seeded.latest) ? seeded : cached);
+        }
+        if (last.previous == null) return null;
 
         return String.format(
                 "%sjobConfigHistory/showDiffFiles?timestamp1=%s&timestamp2=%s",
-                job.getShortUrl(), configs.get(1).getDate(), configs.get(0).getDate()
+                job.getUrl(), last.previous, last.latest
         );
     }
 
-    private @CheckForNull
-    List<ConfigInfo> storedConfigurations(final Job<?, ?> job) {
+    public void deleted(final @Nonnull String fullName) {
+        revisions.remove(fullName);
+    }
 
-        final JobConfigHistoryProjectAction action = job.getAction(JobConfigHistoryProjectAction.class);
+    public void moved(final @Nonnull String oldFullName, final @Nonnull String newFullName) {
+        final Revisions cached = revisions.remove(oldFullName);
+        if (cached != null) revisions.put(newFullName, cached);
+    }
+
+    /**
+     * 从保存时刻往前找几秒, 有比缓存更新的历史目录就往前挪一位. 时间戳的字符串顺序就是时间顺序.
+     * 没有找到 (比如配置没有变化, jobConfigHistory 没有记录) 时还是缓存里的两次修改.
+     */
+    private static @CheckForNull
+    Revisions probe(final File dir, final LocalDateTime saved, final @CheckForNull Revisions cached) {
+        for (int i = 0; i <= PROBE_SECONDS; i++) {
+            final String timestamp = saved.minusSeconds(i).format(TIMESTAMP);
+            if (cached != null && timestamp.compareTo(cached.latest) <= 0) break;
+            if (new File(dir, timestamp).isDirectory()) {
+                return cached == null ? new Revisions(timestamp, null, false) : new Revisions(timestamp, cached.latest, true);
+            }
+        }
+        return cached;
+    }
 
-        if (action == null) return null;
+    /**
+     * 比 latest 早的最新一个时间戳目录.
+     */
+    private static Revisions seed(final File dir, final String latest) {
+        String previous = null;
+        final String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.compareTo(latest) >= 0 || !isTimestamp(name)) continue;
+                if (previous == null || name.compareTo(previous) > 0) {
+                    previous = name;
+                }
+            }
+        }
+        return new Revisions(latest, previous, true);
+    }
 
+    private static boolean isTimestamp(final String name) {
         try {
+            TIMESTAMP.parse(name);
+            return true;
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+    }
 
-            return action.getJobConfigs();
-        } catch (IOException ex) {
+    /**
+     * 历史根目录下和 job 在 JENKINS_HOME 下相同的相对路径; 还没有历史时返回 null.
+     */
+    private @CheckForNull
+    File historyDir(final Job<?, ?> job) {
+        final File home = Jenkins.get().getRootDir();
+        final String configured = plugin.getHistoryRootDir();
+        File root = StringUtils.isBlank(configured) ? new File(home, "config-history") : new File(configured);
+        if (!root.isAbsolute()) root = new File(home, configured);
 
-            ex.printStackTrace();
+        final Path relative;
+        try {
+            relative = home.toPath().relativize(job.getRootDir().toPath());
+        } catch (IllegalArgumentException ex) {
             return null;
         }
+        final File dir = new File(root, relative.toString());
+        return dir.isDirectory() ? dir : null;
+    }
+
+    /**
+     * 最近两次修改的时间戳, 新的在前.
+     */
+    public static final class Revisions {
+        final String latest;
+        final String previous;
+        /**
+         * previous 是否已经确定: 列过历史目录, 或者是缓存里上一次保存的时间戳.
+         */
+        final boolean seeded;
+
+        Revisions(final String latest, final String previous, final boolean seeded) {
+            this.latest = latest;
+            this.previous = previous;
+            this.seeded = seeded;
+        }
     }
 }
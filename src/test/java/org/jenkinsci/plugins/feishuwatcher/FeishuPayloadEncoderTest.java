@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FeishuPayloadEncoderTest {
+
+    private static final String TRUNCATED = "\n...(内容过长, 已截断)";
+
+    @Test
+    public void text() {
+        FeishuPayload payload = FeishuPayloadEncoder.text("Job \"a\" updated\n");
+        assertEquals("{\"msg_type\":\"text\",\"content\":{\"text\":\"Job \\\"a\\\" updated\\n\"}}", payload.toString());
+    }
+
+    @Test
+    public void post() throws IOException {
+        FeishuPayload payload = FeishuPayloadEncoder.post("title", w -> {
+            w.text("说明: ", "body", "\n");
+            w.link("请点这里", "https://jenkins.example.com/job/a/");
+            w.at("ou_1");
+        });
+        JsonNode line = read(payload).at("/content/post/zh_cn/content/0");
+        assertEquals("title", read(payload).at("/content/post/zh_cn/title").asText());
+        assertEquals("说明: body\n", line.at("/0/text").asText());
+        assertEquals("https://jenkins.example.com/job/a/", line.at("/1/href").asText());
+        assertEquals("ou_1", line.at("/2/user_id").asText());
+    }
+
+    @Test
+    public void truncatesLongBodyWithinBudget() throws IOException {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 100000) body.append("节点掉线 \"quoted\"\t\u0001 ");
+        FeishuPayload payload = FeishuPayloadEncoder.text("prefix\n", body.toString(), "\nsuffix");
+
+        assertTrue(payload.size() + " bytes", payload.size() <= FeishuPayloadEncoder.MAX_BYTES);
+        // 截断的位置不能切开转义序列或者多字节字符, 否则不是合法的 JSON
+        String text = read(payload).at("/content/text").asText();
+        assertTrue(text.startsWith("prefix\n节点掉线"));
+        assertTrue(text.endsWith(TRUNCATED + "\nsuffix"));
+        assertTrue(body.toString().startsWith(text.substring("prefix\n".length(), text.length() - TRUNCATED.length() - "\nsuffix".length())));
+    }
+
+    @Test
+    public void fillsBudgetExactly() {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 100000) body.append('x');
+        FeishuPayload payload = FeishuPayloadEncoder.text("", body.toString(), "");
+        assertEquals(FeishuPayloadEncoder.MAX_BYTES, payload.size());
+    }
+
+    @Test
+    public void keepsShortBodiesWhole() throws IOException {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 100000) body.append('x');
+        FeishuPayload payload = FeishuPayloadEncoder.post("title", w -> {
+            w.text("", "short cause", "\n");
+            w.text("", body.toString(), "\n");
+        });
+
+        assertTrue(payload.size() + " bytes", payload.size() <= FeishuPayloadEncoder.MAX_BYTES);
+        JsonNode line = read(payload).at("/content/post/zh_cn/content/0");
+        assertEquals("short cause\n", line.at("/0/text").asText());
+        assertTrue(line.at("/1/text").asText().endsWith(TRUNCATED + "\n"));
+    }
+
+    private static JsonNode read(final FeishuPayload payload) throws IOException {
+        return FeishuJson.MAPPER.readTree(payload.bytes());
+    }
+}
@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 本地回环地址上的飞书自定义机器人接口, 总是返回成功, 按 webhook 的 token 记下收到的请求体.
+ */
+final class FeishuStub implements AutoCloseable {
+
+    private static final String PATH = "/open-apis/bot/v2/hook/";
+    private static final byte[] SUCCESS = "{\"code\":0,\"data\":{},\"msg\":\"success\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, BlockingQueue<JsonNode>> received = new ConcurrentHashMap<>();
+
+    FeishuStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    String webhook(final String token) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + PATH + token;
+    }
+
+    /**
+     * 等下一条发到这个 webhook 的消息.
+     */
+    JsonNode next(final String token) throws InterruptedException {
+        JsonNode message = queue(token).poll(30, TimeUnit.SECONDS);
+        assertNotNull("no message for " + token, message);
+        return message;
+    }
+
+    /**
+     * 等过合并窗口之后, 这个 webhook 没有再收到消息.
+     */
+    void assertNothing(final String token) throws InterruptedException {
+        assertNull(queue(token).poll(EventCoalescer.WINDOW_MS * 2 + 1000, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 到目前为止收到的所有消息, 不等待.
+     */
+    List<JsonNode> drain() {
+        List<JsonNode> messages = new ArrayList<>();
+        for (BlockingQueue<JsonNode> queue : received.values()) {
+            queue.drainTo(messages);
+        }
+        return messages;
+    }
+
+    /**
+     * text 消息的内容.
+     */
+    static String text(final JsonNode message) {
+        return message.at("/content/text").asText();
+    }
+
+    private BlockingQueue<JsonNode> queue(final String token) {
+        return received.computeIfAbsent(token, k -> new LinkedBlockingQueue<>());
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            String path = exchange.getRequestURI().getPath();
+            queue(path.substring(PATH.length())).add(FeishuJson.MAPPER.readTree(in));
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, SUCCESS.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(SUCCESS);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
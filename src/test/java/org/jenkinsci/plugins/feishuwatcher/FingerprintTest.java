@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FingerprintTest {
+
+    private static final AtomicInteger BOTS = new AtomicInteger();
+
+    /**
+     * 发送记录是全局的, 每个测试用自己的 webhook.
+     */
+    private static String webhook() {
+        return "https://open.feishu.cn/open-apis/bot/v2/hook/fingerprint-test-" + BOTS.incrementAndGet();
+    }
+
+    @Test
+    public void duplicateIsSuppressed() {
+        String url = webhook();
+        assertTrue(new Fingerprint("computer/agent-1/", "offline").firstSeen(url));
+        assertFalse(new Fingerprint("computer/agent-1/", "offline").firstSeen(url));
+    }
+
+    @Test
+    public void eachWebhookGetsTheMessage() {
+        String url = webhook();
+        assertTrue(new Fingerprint("computer/agent-1/", "offline").firstSeen(url));
+        assertTrue(new Fingerprint("computer/agent-1/", "offline").firstSeen(webhook()));
+    }
+
+    @Test
+    public void differentResourceIsNotDuplicate() {
+        String url = webhook();
+        assertTrue(new Fingerprint("computer/agent-1/", "offline").firstSeen(url));
+        assertTrue(new Fingerprint("computer/agent-2/", "offline").firstSeen(url));
+    }
+
+    @Test
+    public void stateChangesAreSent() {
+        String url = webhook();
+        // 离线 - 上线 - 离线, 每次都是真的变化
+        assertTrue(new Fingerprint("computer/agent-1/", "offline").firstSeen(url));
+        assertTrue(new Fingerprint("computer/agent-1/", "online").firstSeen(url));
+        assertTrue(new Fingerprint("computer/agent-1/", "offline").firstSeen(url));
+        assertFalse(new Fingerprint("computer/agent-1/", "offline").firstSeen(url));
+    }
+}
@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageTemplateTest {
+
+    @ClassRule
+    public static JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void jobVariables() {
+        MessageTemplate template = MessageTemplate.compile("${subject}|${job}|${computer}|${cause}|${ Body }|${event}|${url}|${nope}|${unterminated");
+        assertEquals("feishu-watcher-plugin: Job a updated|a|||diff|JOB_UPDATED|http://jenkins.example.com/job/a/|${nope}|${unterminated",
+                template.text(notification(EventType.JOB_UPDATED, "Job a updated", "diff", "job/a/", "a")));
+    }
+
+    @Test
+    public void computerVariables() {
+        MessageTemplate template = MessageTemplate.compile("[${job}] [${computer}] ${cause}");
+        assertEquals("[] [agent-1] Disconnected by admin",
+                template.text(notification(EventType.COMPUTER_OFFLINE, "marked offline", "Disconnected by admin", "computer/agent-1/", "agent-1")));
+    }
+
+    @Test
+    public void digestSubject() {
+        MessageTemplate template = MessageTemplate.compile("${count} 台机器离线 (${event})${subject}");
+        assertEquals("3 台机器离线 (COMPUTER_OFFLINE)", template.text(3, EventType.COMPUTER_OFFLINE));
+        assertEquals("1", MessageTemplate.compile("${count}").text(notification(EventType.JOB_DELETED, "deleted", "", "job/a/", "a")));
+    }
+
+    @Test
+    public void time() {
+        String text = MessageTemplate.compile("at ${time}").text(notification(EventType.JOB_DELETED, "deleted", "", "job/a/", "a"));
+        assertTrue(text, text.matches("at \\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}"));
+    }
+
+    @Test
+    public void postLinksUrl() throws IOException {
+        MessageTemplate template = MessageTemplate.compile("${job}: ${url}\n${body}");
+        FeishuWatcherNotification n = notification(EventType.JOB_UPDATED, "updated", "diff", "job/a/", "a");
+        FeishuPayload payload = FeishuPayloadEncoder.post("title", w -> template.post(n, w));
+
+        JsonNode line = FeishuJson.MAPPER.readTree(payload.bytes()).at("/content/post/zh_cn/content/0");
+        assertEquals(3, line.size());
+        assertEquals("a: ", line.at("/0/text").asText());
+        assertEquals("a", line.at("/1/tag").asText());
+        assertEquals(MessageTemplate.LINK_TEXT, line.at("/1/text").asText());
+        assertEquals("http://jenkins.example.com/job/a/", line.at("/1/href").asText());
+        assertEquals("\ndiff", line.at("/2/text").asText());
+    }
+
+    private static FeishuWatcherNotification notification(final EventType event, final String subject, final String body,
+                                                          final String url, final String name) {
+        Notification.Builder builder = new Notification.Builder();
+        builder.event(event).subject(subject).body(body);
+        return builder.build(url, name);
+    }
+
+    private static final class Notification extends FeishuWatcherNotification {
+
+        Notification(final Builder builder) {
+            super(builder);
+        }
+
+        private static final class Builder extends FeishuWatcherNotification.Builder {
+
+            Builder() {
+                super(new FeishuWatcher(j.jenkins), "http://jenkins.example.com/");
+            }
+
+            Notification build(final String url, final String name) {
+                url(url);
+                name(name);
+                return new Notification(this);
+            }
+
+            @Override
+            public void send(final Object o) {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import hudson.model.Computer;
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+import hudson.model.User;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.OfflineCause;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.SleepBuilder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用户临时下线一台还在跑任务的机器, 任务都结束之后通知一次.
+ */
+public class NodeAwailabilityListenerTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private FeishuStub feishu;
+
+    @Before
+    public void setUp() throws IOException {
+        feishu = new FeishuStub();
+    }
+
+    @After
+    public void tearDown() {
+        feishu.close();
+    }
+
+    private Computer agent(final String label) throws Exception {
+        DumbSlave agent = j.createOnlineSlave(Label.get(label));
+        agent.getNodeProperties().add(new WatcherNodeProperty(feishu.webhook(label), null, false));
+        WatcherRegistry.rescanNodes();
+        return agent.toComputer();
+    }
+
+    private void putOffline(final Computer computer) throws InterruptedException {
+        computer.setTemporarilyOffline(true, new OfflineCause.UserCause(User.getById("alice", true), "maintenance"));
+    }
+
+    private static void awaitBusy(final Computer computer) throws InterruptedException {
+        while (computer.countBusy() == 0) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void pipelineNodeBlock() throws Exception {
+        Computer agent = agent("pipeline");
+        WorkflowJob p = j.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("node('pipeline') { sleep 10 }", true));
+        WorkflowRun run = p.scheduleBuild2(0).waitForStart();
+        awaitBusy(agent);
+
+        putOffline(agent);
+        assertTrue(FeishuStub.text(feishu.next("pipeline")).contains("marked temporarily offline"));
+        // node 块还没结束
+        feishu.assertNothing("pipeline");
+
+        j.assertBuildStatusSuccess(j.waitForCompletion(run));
+        String text = FeishuStub.text(feishu.next("pipeline"));
+        assertTrue(text, text.contains("you have put offline is no longer occupied"));
+        feishu.assertNothing("pipeline");
+    }
+
+    @Test
+    public void freestyleBuild() throws Exception {
+        Computer agent = agent("freestyle");
+        FreeStyleProject p = j.createFreeStyleProject("p");
+        p.setAssignedLabel(Label.get("freestyle"));
+        p.getBuildersList().add(new SleepBuilder(10000));
+        p.scheduleBuild2(0).waitForStart();
+        awaitBusy(agent);
+
+        putOffline(agent);
+        assertTrue(FeishuStub.text(feishu.next("freestyle")).contains("marked temporarily offline"));
+
+        String text = FeishuStub.text(feishu.next("freestyle"));
+        assertTrue(text, text.contains("you have put offline is no longer occupied"));
+    }
+
+    @Test
+    public void idleWhenPutOffline() throws Exception {
+        Computer agent = agent("idle");
+        putOffline(agent);
+        assertTrue(FeishuStub.text(feishu.next("idle")).contains("marked temporarily offline"));
+        // 本来就空闲, 不跟踪, 也不再通知
+        feishu.assertNothing("idle");
+    }
+}
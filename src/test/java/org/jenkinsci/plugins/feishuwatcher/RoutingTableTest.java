@@ -0,0 +1,108 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RoutingTableTest {
+
+    private static final String HOOK = "https://open.feishu.cn/open-apis/bot/v2/hook/";
+
+    private static RoutingRule rule(final String token) {
+        return new RoutingRule(HOOK + token);
+    }
+
+    private static RoutingRule folder(final String token, final String folder) {
+        RoutingRule rule = rule(token);
+        rule.setFolder(folder);
+        return rule;
+    }
+
+    private static RoutingRule pattern(final String token, final String jobPattern) {
+        RoutingRule rule = rule(token);
+        rule.setJobPattern(jobPattern);
+        return rule;
+    }
+
+    private static RoutingRule events(final String token, final String events) {
+        RoutingRule rule = rule(token);
+        rule.setEvents(events);
+        return rule;
+    }
+
+    private static String route(final RoutingTable table, final EventType event, final String fullName) {
+        RoutingTable.Route route = table.route(event, fullName);
+        return route == null ? null : route.getWebhooks().get(0).substring(HOOK.length());
+    }
+
+    @Test
+    public void empty() {
+        assertTrue(RoutingTable.EMPTY.isEmpty());
+        assertNull(RoutingTable.EMPTY.route(EventType.JOB_UPDATED, "a"));
+    }
+
+    @Test
+    public void folderMatchesWholePathSegments() {
+        RoutingTable table = new RoutingTable(Collections.singletonList(folder("a", "/team-a/")));
+        assertEquals("a", route(table, EventType.JOB_UPDATED, "team-a/build"));
+        assertEquals("a", route(table, EventType.JOB_UPDATED, "team-a/nested/build"));
+        assertNull(route(table, EventType.JOB_UPDATED, "team-ab/build"));
+        // folder 本身同名的顶层 job 不算在 folder 里面
+        assertNull(route(table, EventType.JOB_UPDATED, "team-a"));
+    }
+
+    @Test
+    public void jobPatternMatchesFullName() {
+        RoutingTable table = new RoutingTable(Collections.singletonList(pattern("release", ".*-release")));
+        assertEquals("release", route(table, EventType.JOB_DELETED, "team-a/app-release"));
+        assertNull(route(table, EventType.JOB_DELETED, "team-a/app-release-old"));
+    }
+
+    @Test
+    public void eventsFilter() {
+        RoutingTable table = new RoutingTable(Collections.singletonList(events("deleted", "job_deleted, JOB_RENAMED")));
+        assertEquals("deleted", route(table, EventType.JOB_DELETED, "a"));
+        assertEquals("deleted", route(table, EventType.JOB_RENAMED, "a"));
+        assertNull(route(table, EventType.JOB_UPDATED, "a"));
+        // 是否被关注: 任意 job 事件
+        assertEquals("deleted", route(table, null, "a"));
+    }
+
+    @Test
+    public void firstRuleWins() {
+        RoutingTable table = new RoutingTable(Arrays.asList(
+                pattern("any", ".*"),
+                folder("team-a", "team-a")));
+        assertEquals("any", route(table, EventType.JOB_UPDATED, "team-a/build"));
+
+        table = new RoutingTable(Arrays.asList(
+                folder("nested", "team-a/nested"),
+                folder("team-a", "team-a"),
+                pattern("any", ".*")));
+        assertEquals("nested", route(table, EventType.JOB_UPDATED, "team-a/nested/build"));
+        assertEquals("team-a", route(table, EventType.JOB_UPDATED, "team-a/build"));
+        assertEquals("any", route(table, EventType.JOB_UPDATED, "build"));
+    }
+
+    @Test
+    public void nodeOnlyRuleDoesNotWatchJobs() {
+        RoutingTable table = new RoutingTable(Collections.singletonList(events("nodes", "COMPUTER_OFFLINE,COMPUTER_ONLINE")));
+        assertFalse(table.isEmpty());
+        assertNull(route(table, null, "a"));
+        assertNull(route(table, EventType.JOB_UPDATED, "a"));
+    }
+
+    @Test
+    public void invalidRuleIsSkipped() {
+        RoutingTable table = new RoutingTable(Arrays.asList(
+                pattern("broken", "(["),
+                rule("ok")));
+        assertEquals("ok", route(table, EventType.JOB_UPDATED, "a"));
+    }
+}
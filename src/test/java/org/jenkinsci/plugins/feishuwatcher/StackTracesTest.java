@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StackTracesTest {
+
+    @Test
+    public void textWithoutStackTraceIsUnchanged() {
+        assertNull(StackTraces.trim(null));
+        assertEquals("", StackTraces.trim(""));
+        assertEquals("Disconnected by admin : maintenance\n", StackTraces.trim("Disconnected by admin : maintenance\n"));
+    }
+
+    @Test
+    public void keepsTopFrames() {
+        StringBuilder trace = new StringBuilder("java.io.IOException: boom\n");
+        for (int i = 0; i < 20; i++) {
+            trace.append("\tat a.B.m").append(i).append("(B.java:").append(i).append(")\n");
+        }
+        assertEquals("java.io.IOException: boom\n"
+                + "\tat a.B.m0(B.java:0)\n"
+                + "\tat a.B.m1(B.java:1)\n"
+                + "\tat a.B.m2(B.java:2)\n"
+                + "\tat a.B.m3(B.java:3)\n"
+                + "\tat a.B.m4(B.java:4)\n"
+                + "\t... 15 lines omitted\n", StackTraces.trim(trace.toString()));
+    }
+
+    @Test
+    public void keepsOnlyRootCause() {
+        String trace = "Connection was broken: java.lang.RuntimeException: outer\n"
+                + "\tat a.A.m0(A.java:0)\n"
+                + "\tat a.A.m1(A.java:1)\n"
+                + "Caused by: java.io.IOException: mid\n"
+                + "\tat a.B.m0(B.java:0)\n"
+                + "\tat a.B.m1(B.java:1)\n"
+                + "\t... 2 more\n"
+                + "Caused by: java.lang.IllegalStateException: root\n"
+                + "\tat a.C.m0(C.java:0)\n"
+                + "\tat a.C.m1(C.java:1)\n"
+                + "\t... 4 more";
+        assertEquals("Connection was broken: java.lang.RuntimeException: outer\n"
+                + "\tat a.A.m0(A.java:0)\n"
+                + "\tat a.A.m1(A.java:1)\n"
+                + "\t... 4 lines omitted\n"
+                + "Caused by: java.lang.IllegalStateException: root\n"
+                + "\tat a.C.m0(C.java:0)", StackTraces.trim(trace));
+    }
+
+    @Test
+    public void dropsSuppressed() {
+        String trace = "java.io.IOException: close failed\n"
+                + "\tat a.A.m0(A.java:0)\n"
+                + "\tSuppressed: java.io.IOException: flush failed\n"
+                + "\t\tat a.B.m0(B.java:0)\n"
+                + "\t\t... 1 more\n"
+                + "after";
+        assertEquals("java.io.IOException: close failed\n"
+                + "\tat a.A.m0(A.java:0)\n"
+                + "\t... 3 lines omitted\n"
+                + "after", StackTraces.trim(trace));
+    }
+}
@@ -0,0 +1,242 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.cloudbees.hudson.plugins.folder.Folder;
+import com.fasterxml.jackson.databind.JsonNode;
+import hudson.ExtensionList;
+import hudson.model.Computer;
+import hudson.model.FreeStyleProject;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.OfflineCause;
+import hudson.util.Secret;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 从监听器回调开始, 经过注册表, 路由, 合并, 去重, 编码, 签名, 推送到本地的飞书桩服务.
+ */
+public class WatcherListenerTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private FeishuStub feishu;
+    private WatcherComputerListener computers;
+    private WatcherItemListener items;
+
+    @Before
+    public void setUp() throws IOException {
+        feishu = new FeishuStub();
+        computers = ExtensionList.lookupSingleton(WatcherComputerListener.class);
+        items = ExtensionList.lookupSingleton(WatcherItemListener.class);
+    }
+
+    @After
+    public void tearDown() {
+        feishu.close();
+    }
+
+    private Computer agent(final String name, final String label, final WatcherNodeProperty property) throws Exception {
+        DumbSlave agent = new DumbSlave(name, new File(j.jenkins.getRootDir(), "agents/" + name).getPath(), new JNLPLauncher(true));
+        agent.setLabelString(label);
+        if (property != null) agent.getNodeProperties().add(property);
+        j.jenkins.addNode(agent);
+        WatcherRegistry.rescanNodes();
+        return agent.toComputer();
+    }
+
+    private Computer agent(final String name, final String token) throws Exception {
+        return agent(name, "", new WatcherNodeProperty(feishu.webhook(token), null, false));
+    }
+
+    private FreeStyleProject job(final String name, final String token) throws IOException {
+        FreeStyleProject job = j.createFreeStyleProject(name);
+        job.addProperty(new WatcherJobProperty(feishu.webhook(token), null, false));
+        return job;
+    }
+
+    @Test
+    public void computerOffline() throws Exception {
+        Computer agent = agent("agent-1", "offline");
+        computers.onOffline(agent, new OfflineCause.ChannelTermination(new IOException("Connection reset")));
+
+        String text = FeishuStub.text(feishu.next("offline"));
+        assertTrue(text, text.startsWith("feishu-watcher-plugin: Computer agent-1 marked offline"));
+        // 掉线原因里的堆栈只留最上面几帧
+        assertTrue(text, text.contains("java.io.IOException: Connection reset"));
+        assertTrue(text, text.contains("lines omitted"));
+    }
+
+    @Test
+    public void repeatedStateIsSentOnce() throws Exception {
+        Computer agent = agent("agent-1", "dedup");
+        computers.onOffline(agent, new OfflineCause.ByCLI("maintenance"));
+        feishu.next("dedup");
+
+        // Jenkins 接着调用不带原因的重载, 状态没有变化
+        computers.onOffline(agent);
+        feishu.assertNothing("dedup");
+
+        computers.onOnline(agent, TaskListener.NULL);
+        assertTrue(FeishuStub.text(feishu.next("dedup")).contains("Computer agent-1 marked online"));
+    }
+
+    @Test
+    public void flapWithinWindowIsDropped() throws Exception {
+        Computer agent = agent("agent-1", "flap");
+        computers.onOffline(agent, new OfflineCause.ByCLI("restart"));
+        computers.onOnline(agent, TaskListener.NULL);
+        feishu.assertNothing("flap");
+    }
+
+    @Test
+    public void burstIsCoalesced() throws Exception {
+        Computer[] agents = {agent("agent-1", "burst"), agent("agent-2", "burst"), agent("agent-3", "burst")};
+        for (Computer agent : agents) {
+            computers.onOffline(agent, new OfflineCause.ByCLI("scale down"));
+        }
+
+        String text = FeishuStub.text(feishu.next("burst"));
+        assertTrue(text, text.startsWith("feishu-watcher-plugin: 3 computers went offline"));
+        for (Computer agent : agents) {
+            assertTrue(text, text.contains("- Computer " + agent.getName() + " marked offline"));
+        }
+        feishu.assertNothing("burst");
+    }
+
+    @Test
+    public void digestFollowsConfiguredTexts() throws Exception {
+        EventTemplate template = new EventTemplate("COMPUTER_OFFLINE", "");
+        template.setDigestSubject("${count} 台机器离线");
+        FeishuWatcherGlobalConfiguration.get().setTemplates(Collections.singletonList(template));
+        Computer[] agents = {agent("agent-1", "digest"), agent("agent-2", "digest")};
+        for (Computer agent : agents) {
+            computers.onOffline(agent, new OfflineCause.ByCLI("scale down"));
+        }
+
+        String text = FeishuStub.text(feishu.next("digest"));
+        assertTrue(text, text.startsWith("feishu-watcher-plugin: 2 台机器离线"));
+    }
+
+    @Test
+    public void jobUpdated() throws Exception {
+        FreeStyleProject watched = job("watched", "jobs");
+        FreeStyleProject unwatched = j.createFreeStyleProject("unwatched");
+        assertTrue(WatcherRegistry.isWatched(watched));
+        assertFalse(WatcherRegistry.isWatched(unwatched));
+
+        items.onUpdated(unwatched);
+        items.onUpdated(watched);
+        String text = FeishuStub.text(feishu.next("jobs"));
+        assertTrue(text, text.startsWith("feishu-watcher-plugin: Job watched updated"));
+        assertTrue(text, text.contains("job/watched/"));
+        feishu.assertNothing("jobs");
+    }
+
+    @Test
+    public void jobRoutedByFolderRule() throws Exception {
+        RoutingRule rule = new RoutingRule(feishu.webhook("team"));
+        rule.setFolder("team");
+        FeishuWatcherGlobalConfiguration.get().setRules(Collections.singletonList(rule));
+
+        Folder team = j.jenkins.createProject(Folder.class, "team");
+        FreeStyleProject inside = team.createProject(FreeStyleProject.class, "build");
+        FreeStyleProject outside = j.createFreeStyleProject("build");
+        assertTrue(WatcherRegistry.isWatched(inside));
+        assertFalse(WatcherRegistry.isWatched(outside));
+
+        items.onDeleted(outside);
+        items.onDeleted(inside);
+        String text = FeishuStub.text(feishu.next("team"));
+        assertTrue(text, text.startsWith("feishu-watcher-plugin: Job team » build deleted"));
+        assertTrue(text, text.contains("job/team/job/build/"));
+        feishu.assertNothing("team");
+    }
+
+    @Test
+    public void nodeRoutedByLabelRule() throws Exception {
+        RoutingRule rule = new RoutingRule(feishu.webhook("linux"));
+        rule.setLabelExpression("linux && !arm");
+        rule.setEvents("COMPUTER_OFFLINE");
+        FeishuWatcherGlobalConfiguration.get().setRules(Collections.singletonList(rule));
+
+        Computer linux = agent("linux-1", "linux x86", null);
+        Computer arm = agent("linux-2", "linux arm", null);
+        assertTrue(WatcherRegistry.isWatchedNode(linux.getName()));
+        assertFalse(WatcherRegistry.isWatchedNode(arm.getName()));
+
+        computers.onOffline(arm, new OfflineCause.ByCLI("maintenance"));
+        computers.onOffline(linux, new OfflineCause.ByCLI("maintenance"));
+        assertTrue(FeishuStub.text(feishu.next("linux")).startsWith("feishu-watcher-plugin: Computer linux-1 marked offline"));
+        // 规则只关心离线
+        computers.onOnline(linux, TaskListener.NULL);
+        feishu.assertNothing("linux");
+    }
+
+    @Test
+    public void signedWhenSecretIsConfigured() throws Exception {
+        WatcherJobProperty property = new WatcherJobProperty(feishu.webhook("signed"), null, false);
+        property.setSecret(Secret.fromString("s3cret"));
+        FreeStyleProject job = j.createFreeStyleProject("signed");
+        job.addProperty(property);
+
+        items.onDeleted(job);
+        JsonNode message = feishu.next("signed");
+        assertSigned(message, "s3cret");
+        assertEquals("text", message.path("msg_type").asText());
+        assertTrue(FeishuStub.text(message).startsWith("feishu-watcher-plugin: Job signed deleted"));
+    }
+
+    @Test
+    public void changedSecretIsUsedForNextSend() throws Exception {
+        WatcherJobProperty property = new WatcherJobProperty(feishu.webhook("rotated"), null, false);
+        property.setSecret(Secret.fromString("old"));
+        FreeStyleProject job = j.createFreeStyleProject("rotated");
+        job.addProperty(property);
+        items.onDeleted(job);
+        assertSigned(feishu.next("rotated"), "old");
+
+        // 在配置页面改了密钥: 保存后所有 ItemListener 都会收到 onUpdated
+        property.setSecret(Secret.fromString("new"));
+        ItemListener.fireOnUpdated(job);
+        assertSigned(feishu.next("rotated"), "new");
+
+        // 改名不影响按 webhook 查到的密钥
+        job.renameTo("rotated-2");
+        assertSigned(feishu.next("rotated"), "new");
+    }
+
+    private static void assertSigned(final JsonNode message, final String secret) throws Exception {
+        String timestamp = message.path("timestamp").asText();
+        assertTrue(Math.abs(Long.parseLong(timestamp) - System.currentTimeMillis() / 1000) < 60);
+        assertEquals(feishuSign(timestamp, secret), message.path("sign").asText());
+    }
+
+    /**
+     * 飞书文档里的签名示例代码.
+     */
+    private static String feishuSign(final String timestamp, final String secret) throws Exception {
+        String stringToSign = timestamp + "\n" + secret;
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(stringToSign.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] signData = mac.doFinal(new byte[]{});
+        return new String(Base64.getEncoder().encode(signData), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import hudson.ExtensionList;
+import hudson.model.Computer;
+import hudson.model.FreeStyleProject;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.OfflineCause;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 压测: 几个 "监听器线程" 同时让一批机器离线, 保存一批 job, 经过注册表, 合并, 去重, 调度队列, 限流推送到本地飞书桩服务.
+ * <p>
+ * 检查每条事件都送到了, 以及监听器回调在 Jenkins 线程上花的 p99 时间.
+ * 规模用系统属性调整, 比如 {@code mvn test -Dtest=WatcherSoakTest -Dsoak.agents=300 -Dsoak.jobs=3000}:
+ * soak.agents, soak.jobs, soak.webhooks, soak.listenerThreads, soak.maxListenerP99Micros.
+ */
+public class WatcherSoakTest {
+    private static final Logger LOGGER = Logger.getLogger(WatcherSoakTest.class.getName());
+
+    private static final int AGENTS = Integer.getInteger("soak.agents", 50);
+    private static final int JOBS = Integer.getInteger("soak.jobs", 200);
+    /**
+     * 按标题检查投递, 每个 webhook 一个窗口里的事件不能超过汇总消息列出的条数.
+     */
+    private static final int WEBHOOKS = Integer.getInteger("soak.webhooks", Math.max(1, (AGENTS + JOBS + 39) / 40));
+    private static final int LISTENER_THREADS = Integer.getInteger("soak.listenerThreads", 8);
+    private static final long MAX_LISTENER_P99_MICROS = Long.getLong("soak.maxListenerP99Micros", 5000L);
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void soak() throws Exception {
+        assertTrue("raise soak.webhooks", (AGENTS + JOBS) / WEBHOOKS < EventCoalescer.MAX_DIGEST_LINES);
+        try (FeishuStub feishu = new FeishuStub()) {
+            final Set<String> expected = new HashSet<>();
+            final List<Computer> agents = new ArrayList<>();
+            for (int i = 0; i < AGENTS; i++) {
+                DumbSlave agent = new DumbSlave("agent-" + i, new File(j.jenkins.getRootDir(), "agents/" + i).getPath(), new JNLPLauncher(true));
+                agent.getNodeProperties().add(new WatcherNodeProperty(feishu.webhook("soak-" + i % WEBHOOKS), null, false));
+                j.jenkins.addNode(agent);
+                agents.add(agent.toComputer());
+                expected.add("Computer agent-" + i + " marked offline");
+            }
+            WatcherRegistry.rescanNodes();
+            final List<FreeStyleProject> jobs = new ArrayList<>();
+            for (int i = 0; i < JOBS; i++) {
+                FreeStyleProject job = j.createFreeStyleProject("job-" + i);
+                job.addProperty(new WatcherJobProperty(feishu.webhook("soak-" + i % WEBHOOKS), null, false));
+                jobs.add(job);
+                expected.add("Job job-" + i + " updated");
+            }
+
+            final WatcherComputerListener computers = ExtensionList.lookupSingleton(WatcherComputerListener.class);
+            final WatcherItemListener items = ExtensionList.lookupSingleton(WatcherItemListener.class);
+            final long[] listenerNanos = new long[AGENTS + JOBS];
+            final AtomicInteger next = new AtomicInteger();
+            final ExecutorService listeners = Executors.newFixedThreadPool(LISTENER_THREADS);
+            try {
+                List<Future<?>> calls = new ArrayList<>();
+                for (int t = 0; t < LISTENER_THREADS; t++) {
+                    calls.add(listeners.submit(() -> {
+                        for (int i = next.getAndIncrement(); i < listenerNanos.length; i = next.getAndIncrement()) {
+                            long start = System.nanoTime();
+                            if (i < AGENTS) {
+                                computers.onOffline(agents.get(i), new OfflineCause.ByCLI("soak"));
+                            } else {
+                                items.onUpdated(jobs.get(i - AGENTS));
+                            }
+                            listenerNanos[i] = System.nanoTime() - start;
+                        }
+                    }));
+                }
+                for (Future<?> call : calls) call.get();
+            } finally {
+                listeners.shutdown();
+            }
+
+            // 每条事件的标题都要出现在某条消息 (单条或者汇总) 里
+            final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+            final Set<String> missing = new HashSet<>(expected);
+            int messages = 0;
+            while (!missing.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(200);
+                for (JsonNode message : feishu.drain()) {
+                    messages++;
+                    String text = FeishuStub.text(message);
+                    missing.removeIf(subject -> text.contains(subject + "\n"));
+                }
+            }
+
+            Arrays.sort(listenerNanos);
+            long p50 = TimeUnit.NANOSECONDS.toMicros(listenerNanos[listenerNanos.length / 2]);
+            long p99 = TimeUnit.NANOSECONDS.toMicros(listenerNanos[(int) (listenerNanos.length * 0.99)]);
+            long max = TimeUnit.NANOSECONDS.toMicros(listenerNanos[listenerNanos.length - 1]);
+            LOGGER.info(String.format("%d events in %d messages, listener p50=%dus p99=%dus max=%dus",
+                    listenerNanos.length, messages, p50, p99, max));
+
+            assertTrue(missing.size() + " events were not delivered: " + missing.stream().limit(5).collect(Collectors.joining(", ")),
+                    missing.isEmpty());
+            assertTrue("listener p99 " + p99 + "us > " + MAX_LISTENER_P99_MICROS + "us", p99 <= MAX_LISTENER_P99_MICROS);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 打开时长用 surefire 配置里缩短过的 baseOpenMs / maxOpenMs, 见 pom.xml.
+ */
+public class WebhookCircuitBreakerTest {
+
+    private static final AtomicInteger BOTS = new AtomicInteger();
+
+    private static final String REJECTED = "{\"code\":19024,\"msg\":\"Key Words Not Found\"}";
+    private static final String TOKEN_INVALID = "{\"code\":19001,\"msg\":\"param invalid: incoming webhook access token invalid\"}";
+    private static final String THROTTLED = "{\"code\":9499,\"msg\":\"too many request\"}";
+    private static final String SUCCESS = "{\"code\":0,\"msg\":\"success\"}";
+
+    /**
+     * 熔断器按 webhook 全局共享, 每个测试用自己的地址.
+     */
+    private static WebhookCircuitBreaker breaker() {
+        return WebhookCircuitBreaker.of("https://open.feishu.cn/open-apis/bot/v2/hook/breaker-test-" + BOTS.incrementAndGet());
+    }
+
+    private static void send(final WebhookCircuitBreaker breaker, final int httpStatus, final String body) {
+        assertTrue(breaker.allow());
+        breaker.record(FeishuDelivery.classify(httpStatus, body));
+    }
+
+    private static void open(final WebhookCircuitBreaker breaker) {
+        send(breaker, 200, TOKEN_INVALID);
+        assertEquals("OPEN", breaker.getState());
+    }
+
+    @Test
+    public void opensAfterConsecutiveRejections() {
+        WebhookCircuitBreaker breaker = breaker();
+        for (int i = 1; i < WebhookCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            send(breaker, 200, REJECTED);
+        }
+        assertEquals("CLOSED", breaker.getState());
+        assertEquals(WebhookCircuitBreaker.FAILURE_THRESHOLD - 1, breaker.getFailures());
+
+        send(breaker, 200, REJECTED);
+        assertEquals("OPEN", breaker.getState());
+        assertTrue(breaker.rejects());
+        assertFalse(breaker.allow());
+    }
+
+    @Test
+    public void successResetsFailures() {
+        WebhookCircuitBreaker breaker = breaker();
+        for (int i = 1; i < WebhookCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            send(breaker, 200, REJECTED);
+        }
+        send(breaker, 200, SUCCESS);
+        assertEquals(0, breaker.getFailures());
+        send(breaker, 200, REJECTED);
+        assertEquals("CLOSED", breaker.getState());
+    }
+
+    @Test
+    public void deadBotOpensImmediately() {
+        open(breaker());
+
+        WebhookCircuitBreaker breaker = breaker();
+        send(breaker, 404, "404 page not found");
+        assertEquals("OPEN", breaker.getState());
+    }
+
+    @Test
+    public void transientFailuresNeverOpen() {
+        WebhookCircuitBreaker breaker = breaker();
+        for (int i = 0; i < WebhookCircuitBreaker.FAILURE_THRESHOLD * 2; i++) {
+            send(breaker, 429, "");
+            send(breaker, 503, "");
+            send(breaker, 200, THROTTLED);
+            assertTrue(breaker.allow());
+            breaker.record(new FeishuDelivery.Outcome(FeishuDelivery.Outcome.Status.TRANSIENT, 0, -1, "Connection refused"));
+        }
+        assertEquals("CLOSED", breaker.getState());
+        assertEquals(0, breaker.getFailures());
+    }
+
+    @Test
+    public void halfOpenLetsOneProbeThrough() throws InterruptedException {
+        WebhookCircuitBreaker breaker = breaker();
+        open(breaker);
+        Thread.sleep(WebhookCircuitBreaker.BASE_OPEN_MS + 50);
+
+        assertFalse(breaker.rejects());
+        assertTrue(breaker.allow());
+        assertEquals("HALF_OPEN", breaker.getState());
+        assertTrue(breaker.rejects());
+        assertFalse(breaker.allow());
+
+        breaker.record(FeishuDelivery.classify(200, SUCCESS));
+        assertEquals("CLOSED", breaker.getState());
+        assertEquals(0, breaker.getFailures());
+        assertFalse(breaker.rejects());
+    }
+
+    @Test
+    public void failedProbeDoublesOpenTime() throws InterruptedException {
+        WebhookCircuitBreaker breaker = breaker();
+        open(breaker);
+        Thread.sleep(WebhookCircuitBreaker.BASE_OPEN_MS + 50);
+        send(breaker, 200, REJECTED);
+        assertEquals("OPEN", breaker.getState());
+
+        Thread.sleep(WebhookCircuitBreaker.BASE_OPEN_MS + 50);
+        assertTrue(breaker.rejects());
+        Thread.sleep(WebhookCircuitBreaker.BASE_OPEN_MS);
+        assertTrue(breaker.allow());
+    }
+
+    @Test
+    public void probeWithoutResultReopens() throws InterruptedException {
+        WebhookCircuitBreaker breaker = breaker();
+        open(breaker);
+        Thread.sleep(WebhookCircuitBreaker.BASE_OPEN_MS + 50);
+        assertTrue(breaker.allow());
+
+        // 发请求时抛了异常
+        breaker.record(null);
+        assertEquals("OPEN", breaker.getState());
+        Thread.sleep(WebhookCircuitBreaker.BASE_OPEN_MS + 50);
+        assertTrue(breaker.allow());
+    }
+
+    @Test
+    public void throttledProbeCloses() throws InterruptedException {
+        WebhookCircuitBreaker breaker = breaker();
+        open(breaker);
+        Thread.sleep(WebhookCircuitBreaker.BASE_OPEN_MS + 50);
+        send(breaker, 200, THROTTLED);
+        assertEquals("CLOSED", breaker.getState());
+    }
+
+    @Test
+    public void unavailableProbeReopens() throws InterruptedException {
+        WebhookCircuitBreaker breaker = breaker();
+        open(breaker);
+        Thread.sleep(WebhookCircuitBreaker.BASE_OPEN_MS + 50);
+        send(breaker, 502, "");
+        assertEquals("OPEN", breaker.getState());
+    }
+}
@@ -0,0 +1,26 @@
+package org.jenkinsci.plugins.feishuwatcher;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class WebhookSignerTest {
+
+    /**
+     * 用飞书文档 "自定义机器人使用指南 - 签名校验" 里的 Java 示例代码算出来的值:
+     * stringToSign = timestamp + "\n" + secret, HmacSHA256 的 key 是 stringToSign, 数据为空, 结果 Base64.
+     */
+    @Test
+    public void matchesFeishuSample() {
+        assertEquals("l1N0gAcBjdwBvGm1xMjOF0XSyaLRpR7tuO5dHfhAYc8=", WebhookSigner.sign("demo", 1599360473L));
+    }
+
+    @Test
+    public void dependsOnTimestampAndSecret() {
+        String sign = WebhookSigner.sign("demo", 1599360473L);
+        assertEquals(sign, WebhookSigner.sign("demo", 1599360473L));
+        assertNotEquals(sign, WebhookSigner.sign("demo", 1599360474L));
+        assertNotEquals(sign, WebhookSigner.sign("other", 1599360473L));
+    }
+}